@@ -0,0 +1,65 @@
+package org.ros.android.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the CPU time of the {@link ImageEncoder}s that run on the JVM. The mean output size of
+ * every trial is printed, so the bandwidth side of the trade-off is visible next to the scores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageEncoderBenchmark {
+
+  @Param({ImageFixtures.VGA, ImageFixtures.FULL_HD})
+  public String resolution;
+
+  @Param({"java_jpeg", "png1", "png6", "raw_rgb8"})
+  public String encoderName;
+
+  private ImageEncoder encoder;
+  private ByteArrayOutputBuffer output;
+  private byte[] frame;
+  private int width;
+  private int height;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] size = ImageFixtures.parseResolution(resolution);
+    width = size[0];
+    height = size[1];
+    frame = ImageFixtures.nv21(width, height);
+    if (encoderName.equals("java_jpeg")) {
+      encoder = new JavaJpegImageEncoder();
+    } else if (encoderName.startsWith("png")) {
+      encoder = new PngImageEncoder(Integer.parseInt(encoderName.substring(3)));
+    } else {
+      encoder = new RawImageEncoder(RawImageEncoder.RGB8);
+    }
+    output = new ByteArrayOutputBuffer(256 * 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.println(encoderName + " " + resolution + ": "
+        + encoder.getTotalBytes() / Math.max(1, encoder.getEncodedFrames()) + " bytes per frame");
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    encoder.encode(frame, width, height, 80, output);
+    return output.size();
+  }
+}
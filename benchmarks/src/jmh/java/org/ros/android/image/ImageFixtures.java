@@ -0,0 +1,66 @@
+package org.ros.android.image;
+
+import java.util.Random;
+
+/**
+ * Synthetic frames for the benchmarks. A smooth gradient with a little noise compresses roughly
+ * like a camera image, and a fixed seed keeps runs comparable.
+ */
+final class ImageFixtures {
+
+  /** The resolutions benchmarks are usually parameterized with. */
+  static final String QVGA = "320x240";
+  static final String VGA = "640x480";
+  static final String HD = "1280x720";
+  static final String FULL_HD = "1920x1080";
+
+  private static final long SEED = 42;
+
+  private ImageFixtures() {
+  }
+
+  /**
+   * @return the width and height of a resolution such as {@code "640x480"}
+   */
+  static int[] parseResolution(String resolution) {
+    String[] size = resolution.split("x");
+    return new int[] {Integer.parseInt(size[0]), Integer.parseInt(size[1])};
+  }
+
+  static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(SEED).nextBytes(bytes);
+    return bytes;
+  }
+
+  static byte[] nv21(int width, int height) {
+    Random random = new Random(SEED);
+    byte[] frame = new byte[Nv21Images.frameLength(width, height)];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        frame[y * width + x] = (byte) ((x * 255 / width + y * 255 / height) / 2 + random.nextInt(16));
+      }
+    }
+    for (int i = width * height; i < frame.length; i++) {
+      frame[i] = (byte) (128 + random.nextInt(32) - 16);
+    }
+    return frame;
+  }
+
+  /**
+   * @return packed rgb8 pixels of the NV21 fixture with {@code padding} extra bytes per row
+   */
+  static byte[] rgb8(int width, int height, int padding) {
+    byte[] rgb = new byte[width * height * 3];
+    Nv21Images.toRgb8(nv21(width, height), width, height, rgb);
+    if (padding == 0) {
+      return rgb;
+    }
+    int step = width * 3 + padding;
+    byte[] padded = new byte[step * height];
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(rgb, y * width * 3, padded, y * step, width * 3);
+    }
+    return padded;
+  }
+}
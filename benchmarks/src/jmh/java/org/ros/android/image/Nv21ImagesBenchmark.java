@@ -0,0 +1,60 @@
+package org.ros.android.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame NV21 kernels that run before an encoder sees the frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Nv21ImagesBenchmark {
+
+  @Param({ImageFixtures.QVGA, ImageFixtures.VGA, ImageFixtures.HD, ImageFixtures.FULL_HD})
+  public String resolution;
+
+  private byte[] frame;
+  private byte[] rgb;
+  private int width;
+  private int height;
+  private Nv21Pyramid pyramid;
+  private FrameChangeDetector changeDetector;
+  private long now;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] size = ImageFixtures.parseResolution(resolution);
+    width = size[0];
+    height = size[1];
+    frame = ImageFixtures.nv21(width, height);
+    rgb = new byte[width * height * 3];
+    pyramid = new Nv21Pyramid();
+    changeDetector = new FrameChangeDetector(2, 0);
+  }
+
+  @Benchmark
+  public byte[] toRgb8() {
+    Nv21Images.toRgb8(frame, width, height, rgb);
+    return rgb;
+  }
+
+  @Benchmark
+  public int buildPyramid() {
+    return pyramid.build(frame, width, height, 2);
+  }
+
+  @Benchmark
+  public boolean detectChange() {
+    return changeDetector.shouldPublish(frame, width, height, now++);
+  }
+}
@@ -0,0 +1,61 @@
+package org.ros.android.image;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The column-major loop BitmapFromImage used before {@link PixelRowConverter}, with three
+ * {@code getByte} calls per pixel, as the baseline of {@link PixelRowConverterBenchmark} with
+ * rgb8.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PerPixelRgb8Benchmark {
+
+  @Param({ImageFixtures.VGA, ImageFixtures.FULL_HD})
+  public String resolution;
+
+  @Param({"heap", "direct"})
+  public String bufferType;
+
+  private ChannelBuffer data;
+  private int[] pixels;
+  private int width;
+  private int height;
+  private int step;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] size = ImageFixtures.parseResolution(resolution);
+    width = size[0];
+    height = size[1];
+    step = width * 3 + PixelRowConverterBenchmark.PADDING;
+    data = PixelRowConverterBenchmark.newBuffer(bufferType,
+        ImageFixtures.rgb8(width, height, PixelRowConverterBenchmark.PADDING));
+    pixels = new int[width * height];
+  }
+
+  @Benchmark
+  public int[] convertPixels() {
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        int red = data.getByte(y * step + 3 * x) & 0xFF;
+        int green = data.getByte(y * step + 3 * x + 1) & 0xFF;
+        int blue = data.getByte(y * step + 3 * x + 2) & 0xFF;
+        pixels[y * width + x] = 0xFF000000 | red << 16 | green << 8 | blue;
+      }
+    }
+    return pixels;
+  }
+}
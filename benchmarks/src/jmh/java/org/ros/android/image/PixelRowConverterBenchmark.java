@@ -0,0 +1,75 @@
+package org.ros.android.image;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pixel kernel of BitmapFromImage without the Bitmap. Heap buffers are read in place, direct
+ * buffers go through the row buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PixelRowConverterBenchmark {
+
+  /** Row padding in bytes, as produced by drivers that align rows. */
+  static final int PADDING = 16;
+
+  @Param({ImageFixtures.VGA, ImageFixtures.FULL_HD})
+  public String resolution;
+
+  @Param({"rgb8", "bgra8", "mono8", "mono16"})
+  public String encoding;
+
+  @Param({"heap", "direct"})
+  public String bufferType;
+
+  private PixelRowConverter converter;
+  private PixelRowConverter.Encoding pixelEncoding;
+  private ChannelBuffer data;
+  private int[] rowPixels;
+  private int width;
+  private int height;
+  private int step;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] size = ImageFixtures.parseResolution(resolution);
+    width = size[0];
+    height = size[1];
+    pixelEncoding = PixelRowConverter.Encoding.fromString(encoding);
+    step = width * pixelEncoding.getBytesPerPixel() + PADDING;
+    data = newBuffer(bufferType, ImageFixtures.randomBytes(step * height));
+    converter = new PixelRowConverter();
+    rowPixels = new int[width];
+  }
+
+  static ChannelBuffer newBuffer(String bufferType, byte[] bytes) {
+    if (bufferType.equals("heap")) {
+      return ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, bytes);
+    }
+    ChannelBuffer buffer = ChannelBuffers.directBuffer(ByteOrder.LITTLE_ENDIAN, bytes.length);
+    buffer.writeBytes(bytes);
+    return buffer;
+  }
+
+  @Benchmark
+  public int[] convertRows() {
+    for (int y = 0; y < height; y++) {
+      converter.convertRow(data, y * step, width, pixelEncoding, true, rowPixels);
+    }
+    return rowPixels;
+  }
+}
@@ -0,0 +1,68 @@
+package org.ros.android.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a frame on one thread with encoding it in parallel stripes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StripedJpegEncoderBenchmark {
+
+  @Param({ImageFixtures.VGA, ImageFixtures.FULL_HD})
+  public String resolution;
+
+  @Param({"1", "2", "4", "8"})
+  public int stripes;
+
+  private ExecutorService executor;
+  private StripedJpegEncoder encoder;
+  private ByteArrayOutputBuffer output;
+  private byte[] frame;
+  private int width;
+  private int height;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] size = ImageFixtures.parseResolution(resolution);
+    width = size[0];
+    height = size[1];
+    frame = ImageFixtures.nv21(width, height);
+    if (stripes > 1) {
+      executor = Executors.newFixedThreadPool(stripes - 1);
+      encoder = new StripedJpegEncoder(executor, stripes);
+    } else {
+      encoder = new StripedJpegEncoder();
+    }
+    output = new ByteArrayOutputBuffer(256 * 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    output.reset();
+    encoder.encode(frame, width, height, 80, output);
+    return output.size();
+  }
+}
@@ -0,0 +1,80 @@
+package org.ros.android.math;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the {@link Quaternions} operations. The gc profiler's gc.alloc.rate.norm shows the
+ * bytes allocated per call, which should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuaternionsBenchmark {
+
+  private final double[] a = new double[4];
+  private final double[] b = new double[4];
+  private final double[] product = new double[4];
+  private final double[] euler = new double[3];
+  private final double[] vector = {0.3, -1.2, 9.8};
+  private final double[] rotated = new double[3];
+  private final double[] matrix = new double[9];
+  private final double[] axisAngle = new double[4];
+  private final float[] rotationVector = {0.1f, 0.2f, 0.3f, 0.927f};
+  private double angle;
+
+  @Setup
+  public void setUp() {
+    Quaternions.fromEuler(0.1, -0.4, 2.0, a);
+    Quaternions.fromAxisAngle(1, 2, 3, 0.5, b);
+  }
+
+  @Benchmark
+  public double[] eulerRoundTrip() {
+    angle += 1e-3;
+    Quaternions.fromEuler(angle, 0.2, -angle, a);
+    Quaternions.toEuler(a, euler);
+    return euler;
+  }
+
+  @Benchmark
+  public double[] multiplyAndRotate() {
+    Quaternions.multiply(a, b, product);
+    Quaternions.normalize(product, product);
+    Quaternions.rotate(product, vector, rotated);
+    return rotated;
+  }
+
+  @Benchmark
+  public double[] rotationMatrixRoundTrip() {
+    Quaternions.toRotationMatrix(a, matrix);
+    Quaternions.fromRotationMatrix(matrix, product);
+    return product;
+  }
+
+  @Benchmark
+  public double[] axisAngleRoundTrip() {
+    Quaternions.toAxisAngle(b, axisAngle);
+    Quaternions.fromAxisAngle(axisAngle[0], axisAngle[1], axisAngle[2], axisAngle[3], product);
+    return product;
+  }
+
+  @Benchmark
+  public double[] nlerp() {
+    Quaternions.nlerp(a, b, 0.25, product);
+    return product;
+  }
+
+  @Benchmark
+  public double[] fromRotationVector() {
+    Quaternions.fromRotationVector(rotationVector, product);
+    return product;
+  }
+}
@@ -0,0 +1,59 @@
+package org.ros.android.sensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of one {@link MadgwickFilter} update, replaying a synthetic trace of a phone rocking
+ * around two axes at 200 Hz with the gyroscope and accelerometer readings it would produce.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MadgwickFilterBenchmark {
+
+  private static final int TRACE_LENGTH = 2000;
+  private static final double DT = 0.005;
+  private static final double GRAVITY = 9.81;
+
+  private final double[] trace = new double[TRACE_LENGTH * 6];
+  private final MadgwickFilter filter = new MadgwickFilter();
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    for (int i = 0; i < TRACE_LENGTH; i++) {
+      double t = i * DT;
+      // Roll and pitch swing by 0.5 and 0.3 rad at 0.5 and 0.7 Hz.
+      double roll = 0.5 * Math.sin(Math.PI * t);
+      double pitch = 0.3 * Math.sin(1.4 * Math.PI * t);
+      double rollRate = 0.5 * Math.PI * Math.cos(Math.PI * t);
+      double pitchRate = 0.3 * 1.4 * Math.PI * Math.cos(1.4 * Math.PI * t);
+      int offset = i * 6;
+      trace[offset] = rollRate;
+      trace[offset + 1] = Math.cos(roll) * pitchRate;
+      trace[offset + 2] = -Math.sin(roll) * pitchRate;
+      trace[offset + 3] = -GRAVITY * Math.sin(pitch);
+      trace[offset + 4] = GRAVITY * Math.cos(pitch) * Math.sin(roll);
+      trace[offset + 5] = GRAVITY * Math.cos(pitch) * Math.cos(roll);
+    }
+    filter.update(0, 0, 0, trace[3], trace[4], trace[5], DT);
+  }
+
+  @Benchmark
+  public double update() {
+    int offset = next * 6;
+    next = next + 1 < TRACE_LENGTH ? next + 1 : 0;
+    filter.update(trace[offset], trace[offset + 1], trace[offset + 2], trace[offset + 3],
+        trace[offset + 4], trace[offset + 5], DT);
+    return filter.getW();
+  }
+}
@@ -0,0 +1,54 @@
+package org.ros.android.sensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hammers a {@link SensorSnapshot} from a writer and a reader thread at once and fails the run if
+ * the reader ever sees a torn sample or goes back in time. Every sample holds its sequence number
+ * times 1, 2 and 3 and the sequence number as timestamp.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorSnapshotBenchmark {
+
+  private final SensorSnapshot snapshot = new SensorSnapshot(3);
+  private long written;
+  private long lastRead;
+
+  @Benchmark
+  @Group("snapshot")
+  public void write() {
+    long sequence = ++written;
+    snapshot.set(sequence, 2.0 * sequence, 3.0 * sequence);
+    snapshot.publish(sequence);
+  }
+
+  @Benchmark
+  @Group("snapshot")
+  public long read() {
+    if (!snapshot.update()) {
+      return lastRead;
+    }
+    long sequence = snapshot.getSequence();
+    double x = snapshot.get(0);
+    if (snapshot.getTimestampNanos() != sequence || x != sequence || snapshot.get(1) != 2 * x
+        || snapshot.get(2) != 3 * x) {
+      throw new IllegalStateException("Torn sample " + sequence + ": " + x + ", "
+          + snapshot.get(1) + ", " + snapshot.get(2));
+    }
+    if (sequence <= lastRead) {
+      throw new IllegalStateException("Sample " + sequence + " after " + lastRead);
+    }
+    lastRead = sequence;
+    return sequence;
+  }
+}
@@ -0,0 +1,310 @@
+package org.ros.android.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@link FramePipeline} with a synthetic NV21 source on a plain JVM.
+ */
+public class FramePipelineTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int QUALITY = 80;
+  private static final int SLOTS = 4;
+  private static final int ENCODERS = 2;
+  private static final long RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+  private static final int ATTEMPTS = 3;
+  private static final double MIN_SPEEDUP = 1.2;
+
+  private static byte[] nv21() {
+    Random random = new Random(42);
+    byte[] frame = new byte[Nv21Images.frameLength(WIDTH, HEIGHT)];
+    random.nextBytes(frame);
+    return frame;
+  }
+
+  /**
+   * Counts published frames and flags any that arrive out of capture order or without output.
+   */
+  private static final class CountingSink implements FramePipeline.Sink {
+    private volatile long frames;
+    private volatile long lastSequence = -1;
+    private volatile boolean invalid;
+
+    @Override
+    public void publish(FrameSlot slot) {
+      if (slot.getSequence() <= lastSequence || slot.getOutput().size() == 0) {
+        invalid = true;
+      }
+      lastSequence = slot.getSequence();
+      frames++;
+    }
+  }
+
+  private static final FramePipeline.EncoderFactory JPEG_ENCODERS =
+      new FramePipeline.EncoderFactory() {
+        @Override
+        public FramePipeline.Encoder newEncoder() {
+          return new FramePipeline.Encoder() {
+            private final ImageEncoder encoder = new JavaJpegImageEncoder();
+            private final OutputBufferPool pool = new OutputBufferPool(SLOTS + 1, 64 * 1024);
+
+            @Override
+            public void encode(FrameSlot slot) throws IOException {
+              ByteArrayOutputBuffer output = pool.acquire();
+              encoder.encode(slot.getData(), slot.getWidth(), slot.getHeight(), QUALITY, output);
+              slot.setOutput(output);
+            }
+
+            @Override
+            public void release() {
+              encoder.release();
+            }
+          };
+        }
+      };
+
+  /**
+   * A camera delivering a frame every {@code periodNanos}. Frames that fall due while the
+   * callback is still busy are lost, as they are for a preview callback that does not return in
+   * time.
+   */
+  private abstract static class FixedRateSource {
+    private final long periodNanos;
+
+    FixedRateSource(long periodNanos) {
+      this.periodNanos = periodNanos;
+    }
+
+    abstract void onFrame(byte[] frame, long timestamp) throws IOException;
+
+    void run(byte[] frame, long durationNanos) throws IOException {
+      long start = System.nanoTime();
+      long due = start;
+      while (due - start < durationNanos) {
+        long now;
+        while ((now = System.nanoTime()) - due < 0) {
+          LockSupport.parkNanos(due - now);
+        }
+        onFrame(frame, due);
+        now = System.nanoTime();
+        due += periodNanos;
+        if (now - due > 0) {
+          due += (now - due + periodNanos - 1) / periodNanos * periodNanos;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the median time of one encode on the calling thread, after warming up the encoder
+   */
+  private static long medianEncodeNanos(byte[] frame) throws IOException {
+    ImageEncoder encoder = new JavaJpegImageEncoder();
+    ByteArrayOutputBuffer output = new ByteArrayOutputBuffer(64 * 1024);
+    for (int i = 0; i < 100; i++) {
+      encoder.encode(frame, WIDTH, HEIGHT, QUALITY, output);
+    }
+    long[] nanos = new long[31];
+    for (int i = 0; i < nanos.length; i++) {
+      long start = System.nanoTime();
+      encoder.encode(frame, WIDTH, HEIGHT, QUALITY, output);
+      nanos[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+    return nanos[nanos.length / 2];
+  }
+
+  private static double synchronousFramesPerSecond(byte[] frame, long periodNanos)
+      throws IOException {
+    final ImageEncoder encoder = new JavaJpegImageEncoder();
+    final OutputBufferPool pool = new OutputBufferPool(64 * 1024);
+    final long[] published = new long[1];
+    FixedRateSource source = new FixedRateSource(periodNanos) {
+      @Override
+      void onFrame(byte[] frame, long timestamp) throws IOException {
+        ByteArrayOutputBuffer output = pool.acquire();
+        encoder.encode(frame, WIDTH, HEIGHT, QUALITY, output);
+        if (output.size() > 0) {
+          published[0]++;
+        }
+      }
+    };
+    long start = System.nanoTime();
+    source.run(frame, RUN_NANOS);
+    return published[0] * 1e9 / (System.nanoTime() - start);
+  }
+
+  private static double pipelinedFramesPerSecond(byte[] frame, long periodNanos, long runNanos)
+      throws IOException {
+    CountingSink sink = new CountingSink();
+    final FramePipeline pipeline = new FramePipeline(SLOTS, ENCODERS,
+        FramePipeline.DropPolicy.DROP_OLDEST, JPEG_ENCODERS, sink);
+    FixedRateSource source = new FixedRateSource(periodNanos) {
+      @Override
+      void onFrame(byte[] frame, long timestamp) {
+        pipeline.offer(frame, frame.length, WIDTH, HEIGHT, timestamp);
+      }
+    };
+    pipeline.start();
+    long start = System.nanoTime();
+    try {
+      source.run(frame, runNanos);
+    } finally {
+      pipeline.stop();
+    }
+    double framesPerSecond = sink.frames * 1e9 / (System.nanoTime() - start);
+    assertFalse("Frame published out of capture order or without output", sink.invalid);
+    assertEquals(0, pipeline.getFailedFrames());
+    return framesPerSecond;
+  }
+
+  /**
+   * The frame period is set a little shorter than one encode. The synchronous path then misses
+   * every other frame while it is busy and publishes at half the camera rate, whereas the
+   * pipeline keeps its encoders busy with queued frames and additionally spreads them over the
+   * cores, so it sustains a higher frame rate even on a single core. Encode times on a shared
+   * machine vary, so the comparison is repeated with a fresh calibration a few times.
+   */
+  @Test(timeout = 120000)
+  public void pipelineSustainsHigherFrameRateThanSynchronousEncoding() throws IOException {
+    byte[] frame = nv21();
+    String result = null;
+    for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+      long encodeNanos = medianEncodeNanos(frame);
+      long periodNanos = encodeNanos * 4 / 5;
+      // Warms up the pipeline threads and the encoders they create.
+      pipelinedFramesPerSecond(frame, periodNanos, RUN_NANOS / 3);
+
+      double synchronous = synchronousFramesPerSecond(frame, periodNanos);
+      double pipelined = pipelinedFramesPerSecond(frame, periodNanos, RUN_NANOS);
+      result = String.format("pipelined %.1f fps, synchronous %.1f fps, encode %.2f ms", pipelined,
+          synchronous, encodeNanos / 1e6);
+      if (pipelined > MIN_SPEEDUP * synchronous) {
+        return;
+      }
+    }
+    fail(result);
+  }
+
+  @Test(timeout = 10000)
+  public void publishesInCaptureOrderAndCountsDrops() throws InterruptedException {
+    final long[] sequences = new long[8];
+    final int[] published = new int[1];
+    FramePipeline pipeline = new FramePipeline(2, ENCODERS, FramePipeline.DropPolicy.DROP_NEWEST,
+        new FramePipeline.EncoderFactory() {
+          @Override
+          public FramePipeline.Encoder newEncoder() {
+            return new FramePipeline.Encoder() {
+              @Override
+              public void encode(FrameSlot slot) throws InterruptedException {
+                // Later frames finish first.
+                Thread.sleep(50 - 10 * slot.getSequence());
+              }
+
+              @Override
+              public void release() {
+              }
+            };
+          }
+        },
+        new FramePipeline.Sink() {
+          @Override
+          public void publish(FrameSlot slot) {
+            synchronized (sequences) {
+              sequences[published[0]++] = slot.getSequence();
+              sequences.notifyAll();
+            }
+          }
+        });
+    byte[] frame = nv21();
+    pipeline.start();
+    try {
+      assertTrue(pipeline.offer(frame, frame.length, WIDTH, HEIGHT, 0));
+      assertTrue(pipeline.offer(frame, frame.length, WIDTH, HEIGHT, 1));
+      assertFalse(pipeline.offer(frame, frame.length, WIDTH, HEIGHT, 2));
+      synchronized (sequences) {
+        while (published[0] < 2) {
+          sequences.wait();
+        }
+      }
+    } finally {
+      pipeline.stop();
+    }
+    assertEquals(0, sequences[0]);
+    assertEquals(1, sequences[1]);
+    assertEquals(2, pipeline.getCapturedFrames());
+    assertEquals(1, pipeline.getDroppedFrames());
+  }
+
+  /**
+   * {@link FramePipeline#stop()} only waits a while for the workers, so an encoder must not be
+   * released while its worker may still be inside {@link FramePipeline.Encoder#encode}.
+   */
+  @Test(timeout = 10000)
+  public void releasesEncoderOnlyAfterItsLastEncode() throws InterruptedException {
+    final CountDownLatch encoding = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+    final AtomicBoolean inEncode = new AtomicBoolean();
+    final AtomicBoolean releasedDuringEncode = new AtomicBoolean();
+    FramePipeline pipeline = new FramePipeline(1, 1, FramePipeline.DropPolicy.DROP_NEWEST,
+        new FramePipeline.EncoderFactory() {
+          @Override
+          public FramePipeline.Encoder newEncoder() {
+            return new FramePipeline.Encoder() {
+              @Override
+              public void encode(FrameSlot slot) {
+                inEncode.set(true);
+                encoding.countDown();
+                // Outlasts the join in stop() and ignores the interrupt, like a long native encode.
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2000);
+                boolean interrupted = false;
+                while (System.nanoTime() - end < 0) {
+                  try {
+                    Thread.sleep(10);
+                  } catch (InterruptedException e) {
+                    interrupted = true;
+                  }
+                }
+                inEncode.set(false);
+                if (interrupted) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+
+              @Override
+              public void release() {
+                releasedDuringEncode.set(inEncode.get());
+                released.countDown();
+              }
+            };
+          }
+        },
+        new FramePipeline.Sink() {
+          @Override
+          public void publish(FrameSlot slot) {
+          }
+        });
+    byte[] frame = nv21();
+    pipeline.start();
+    assertTrue(pipeline.offer(frame, frame.length, WIDTH, HEIGHT, 0));
+    encoding.await();
+    pipeline.stop();
+    assertEquals(1, released.getCount());
+    released.await();
+    assertFalse(releasedDuringEncode.get());
+  }
+}
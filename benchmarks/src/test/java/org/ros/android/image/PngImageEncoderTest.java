@@ -0,0 +1,49 @@
+package org.ros.android.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+public class PngImageEncoderTest {
+
+  private final PngImageEncoder encoder = new PngImageEncoder(1);
+  private final ByteArrayOutputBuffer output = new ByteArrayOutputBuffer(1024);
+
+  @After
+  public void tearDown() {
+    encoder.release();
+  }
+
+  private BufferedImage encodeAndDecode(int width, int height) throws IOException {
+    encoder.encode(new byte[Nv21Images.frameLength(width, height)], width, height, 0, output);
+    BufferedImage image =
+        ImageIO.read(new ByteArrayInputStream(output.array(), 0, output.size()));
+    assertNotNull(image);
+    return image;
+  }
+
+  @Test
+  public void encodesWiderFrameOfTheSameArea() throws IOException {
+    BufferedImage portrait = encodeAndDecode(480, 640);
+    assertEquals(480, portrait.getWidth());
+    BufferedImage landscape = encodeAndDecode(640, 480);
+    assertEquals(640, landscape.getWidth());
+    assertEquals(480, landscape.getHeight());
+  }
+
+  @Test
+  public void encodesWiderFrameOfASmallerArea() throws IOException {
+    encodeAndDecode(64, 64);
+    BufferedImage image = encodeAndDecode(128, 16);
+    assertEquals(128, image.getWidth());
+    assertEquals(16, image.getHeight());
+  }
+}
@@ -0,0 +1,161 @@
+package org.ros.android.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that the pooled encode path of ImagePublisherNode settles at zero allocations per frame:
+ * a buffer is acquired from an {@link OutputBufferPool}, a frame encoded into it and handed to a
+ * message through its cached {@link ChannelBuffer} view.
+ * <p>
+ * The default platform JPEG encoder needs Android and is not run here. Its per-frame reuse of the
+ * {@code YuvImage} wrappers is covered through {@link SourceBoundCache}, which it delegates to;
+ * what {@code YuvImage.compressToJpeg} allocates natively is not covered.
+ */
+public class PooledEncodeAllocationTest {
+
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final int WARMUP_FRAMES = 500;
+  private static final int ROUNDS = 5;
+  private static final int FRAMES_PER_ROUND = 100;
+
+  private final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private static byte[] nv21() {
+    Random random = new Random(42);
+    byte[] frame = new byte[Nv21Images.frameLength(WIDTH, HEIGHT)];
+    random.nextBytes(frame);
+    return frame;
+  }
+
+  private long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * @return the bytes allocated by the best of a few rounds of frames after warming up. Rounds in
+   *         which the JIT swaps in recompiled code may allocate a little on the side.
+   */
+  private long steadyStateAllocation(ImageEncoder encoder) throws IOException {
+    OutputBufferPool pool = new OutputBufferPool(1024);
+    byte[] frame = nv21();
+    // Also warms up the allocation counter itself.
+    long sink = allocatedBytes();
+    for (int i = 0; i < WARMUP_FRAMES; i++) {
+      sink += encodeFrame(encoder, pool, frame);
+    }
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long before = allocatedBytes();
+      for (int i = 0; i < FRAMES_PER_ROUND; i++) {
+        sink += encodeFrame(encoder, pool, frame);
+      }
+      best = Math.min(best, allocatedBytes() - before);
+    }
+    assertTrue(sink > 0);
+    return best;
+  }
+
+  private static int encodeFrame(ImageEncoder encoder, OutputBufferPool pool, byte[] frame)
+      throws IOException {
+    ByteArrayOutputBuffer output = pool.acquire();
+    encoder.encode(frame, WIDTH, HEIGHT, 80, output);
+    return output.toChannelBuffer().readableBytes() + output.size();
+  }
+
+  @Test
+  public void javaJpegEncodeAllocatesNothingPerFrame() throws IOException {
+    assertTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    assertEquals(0, steadyStateAllocation(new JavaJpegImageEncoder()));
+  }
+
+  @Test
+  public void pngEncodeAllocatesNothingPerFrame() throws IOException {
+    threads.setThreadAllocatedMemoryEnabled(true);
+    PngImageEncoder encoder = new PngImageEncoder(1);
+    try {
+      assertEquals(0, steadyStateAllocation(encoder));
+    } finally {
+      encoder.release();
+    }
+  }
+
+  @Test
+  public void rawEncodeAllocatesNothingPerFrame() throws IOException {
+    threads.setThreadAllocatedMemoryEnabled(true);
+    assertEquals(0, steadyStateAllocation(new RawImageEncoder(RawImageEncoder.RGB8)));
+  }
+
+  @Test
+  public void poolRecyclesBuffersInRotation() {
+    OutputBufferPool pool = new OutputBufferPool(3, 16);
+    ByteArrayOutputBuffer first = pool.acquire();
+    first.write(1);
+    pool.acquire();
+    pool.acquire();
+    assertSame(first, pool.acquire());
+    assertEquals(0, first.size());
+  }
+
+  @Test
+  public void bufferKeepsItsArrayOnceGrown() {
+    ByteArrayOutputBuffer buffer = new ByteArrayOutputBuffer(4);
+    buffer.write(new byte[100], 0, 100);
+    byte[] array = buffer.array();
+    ChannelBuffer view = buffer.toChannelBuffer();
+    buffer.reset();
+    buffer.write(new byte[100], 0, 100);
+    assertSame(array, buffer.array());
+    assertSame(view, buffer.toChannelBuffer());
+  }
+
+  /**
+   * A camera rotating through three preview buffers, as the platform JPEG encoder sees them.
+   */
+  @Test
+  public void sourceBoundCacheCreatesOneWrapperPerBufferAndThenAllocatesNothing() {
+    threads.setThreadAllocatedMemoryEnabled(true);
+    final int[] created = new int[1];
+    SourceBoundCache<int[]> cache = new SourceBoundCache<int[]>(4,
+        new SourceBoundCache.Factory<int[]>() {
+          @Override
+          public int[] create(byte[] source, int width, int height) {
+            created[0]++;
+            return new int[] {width, height};
+          }
+        });
+    byte[][] buffers = new byte[3][Nv21Images.frameLength(WIDTH, HEIGHT)];
+    long sink = allocatedBytes();
+    for (int i = 0; i < WARMUP_FRAMES; i++) {
+      sink += cache.get(buffers[i % buffers.length], WIDTH, HEIGHT)[0];
+    }
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long before = allocatedBytes();
+      for (int i = 0; i < FRAMES_PER_ROUND; i++) {
+        sink += cache.get(buffers[i % buffers.length], WIDTH, HEIGHT)[0];
+      }
+      best = Math.min(best, allocatedBytes() - before);
+    }
+    assertTrue(sink > 0);
+    assertEquals(0, best);
+    assertEquals(buffers.length, created[0]);
+
+    int[] first = cache.get(buffers[0], WIDTH, HEIGHT);
+    assertSame(first, cache.get(buffers[0], WIDTH, HEIGHT));
+    int[] resized = cache.get(buffers[0], HEIGHT, WIDTH);
+    assertEquals(HEIGHT, resized[0]);
+    assertEquals(buffers.length + 1, created[0]);
+  }
+}
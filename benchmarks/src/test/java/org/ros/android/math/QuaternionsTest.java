@@ -0,0 +1,214 @@
+package org.ros.android.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the conversions against each other over random orientations, and that every operation
+ * still works when the output is one of its inputs.
+ */
+public class QuaternionsTest {
+
+  private static final int ORIENTATIONS = 10000;
+  private static final double EPSILON = 1e-12;
+
+  private final Random random = new Random(42);
+
+  private double[] randomQuaternion() {
+    double[] q = {random.nextGaussian(), random.nextGaussian(), random.nextGaussian(),
+        random.nextGaussian()};
+    Quaternions.normalize(q, q);
+    return q;
+  }
+
+  private double[] randomVector() {
+    return new double[] {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+  }
+
+  /**
+   * Compares rotations, for which q and -q are the same.
+   */
+  private static void assertSameRotation(double[] expected, double[] actual) {
+    double sign = expected[0] * actual[0] + expected[1] * actual[1] + expected[2] * actual[2]
+        + expected[3] * actual[3] < 0 ? -1 : 1;
+    for (int i = 0; i < 4; i++) {
+      assertEquals(expected[i], sign * actual[i], EPSILON);
+    }
+  }
+
+  @Test
+  public void eulerRoundTrip() {
+    double[] q = new double[4];
+    double[] euler = new double[3];
+    double[] back = new double[4];
+    for (int i = 0; i < ORIENTATIONS; i++) {
+      Quaternions.fromEuler((random.nextDouble() * 2 - 1) * Math.PI,
+          (random.nextDouble() * 2 - 1) * Math.PI / 2 * 0.99,
+          (random.nextDouble() * 2 - 1) * Math.PI, q);
+      Quaternions.toEuler(q, euler);
+      Quaternions.fromEuler(euler[0], euler[1], euler[2], back);
+      assertSameRotation(q, back);
+    }
+  }
+
+  @Test
+  public void eulerFollowsRosConvention() {
+    double[] q = new double[4];
+    double[] v = new double[3];
+    // Yaw a quarter turn: x becomes y.
+    Quaternions.fromEuler(0, 0, Math.PI / 2, q);
+    Quaternions.rotate(q, new double[] {1, 0, 0}, v);
+    assertArrayEquals(new double[] {0, 1, 0}, v, EPSILON);
+    // Roll a quarter turn: y becomes z.
+    Quaternions.fromEuler(Math.PI / 2, 0, 0, q);
+    Quaternions.rotate(q, new double[] {0, 1, 0}, v);
+    assertArrayEquals(new double[] {0, 0, 1}, v, EPSILON);
+  }
+
+  @Test
+  public void rotationMatrixRoundTrip() {
+    double[] m = new double[9];
+    double[] back = new double[4];
+    for (int i = 0; i < ORIENTATIONS; i++) {
+      double[] q = randomQuaternion();
+      Quaternions.toRotationMatrix(q, m);
+      Quaternions.fromRotationMatrix(m, back);
+      assertSameRotation(q, back);
+    }
+  }
+
+  @Test
+  public void axisAngleRoundTrip() {
+    double[] axisAngle = new double[4];
+    double[] back = new double[4];
+    for (int i = 0; i < ORIENTATIONS; i++) {
+      double[] q = randomQuaternion();
+      Quaternions.toAxisAngle(q, axisAngle);
+      assertEquals(1, Math.sqrt(axisAngle[0] * axisAngle[0] + axisAngle[1] * axisAngle[1]
+          + axisAngle[2] * axisAngle[2]), EPSILON);
+      Quaternions.fromAxisAngle(axisAngle[0], axisAngle[1], axisAngle[2], axisAngle[3], back);
+      assertSameRotation(q, back);
+    }
+  }
+
+  @Test
+  public void rotateMatchesRotationMatrix() {
+    double[] m = new double[9];
+    double[] rotated = new double[3];
+    for (int i = 0; i < ORIENTATIONS; i++) {
+      double[] q = randomQuaternion();
+      double[] v = randomVector();
+      Quaternions.toRotationMatrix(q, m);
+      Quaternions.rotate(q, v, rotated);
+      for (int row = 0; row < 3; row++) {
+        double expected = m[row * 3] * v[0] + m[row * 3 + 1] * v[1] + m[row * 3 + 2] * v[2];
+        assertEquals(expected, rotated[row], EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void multiplyMatchesSequentialRotation() {
+    double[] product = new double[4];
+    double[] once = new double[3];
+    double[] twice = new double[3];
+    double[] combined = new double[3];
+    for (int i = 0; i < ORIENTATIONS; i++) {
+      double[] a = randomQuaternion();
+      double[] b = randomQuaternion();
+      double[] v = randomVector();
+      Quaternions.multiply(a, b, product);
+      Quaternions.rotate(b, v, once);
+      Quaternions.rotate(a, once, twice);
+      Quaternions.rotate(product, v, combined);
+      assertArrayEquals(twice, combined, EPSILON);
+    }
+  }
+
+  @Test
+  public void conjugateUndoesRotation() {
+    double[] inverse = new double[4];
+    double[] product = new double[4];
+    double[] q = randomQuaternion();
+    Quaternions.conjugate(q, inverse);
+    Quaternions.multiply(q, inverse, product);
+    assertArrayEquals(new double[] {1, 0, 0, 0}, product, EPSILON);
+  }
+
+  @Test
+  public void operationsAllowAliasedOutput() {
+    for (int i = 0; i < 100; i++) {
+      double[] a = randomQuaternion();
+      double[] b = randomQuaternion();
+      double[] expected = new double[4];
+
+      Quaternions.multiply(a, b, expected);
+      double[] aliased = a.clone();
+      Quaternions.multiply(aliased, b, aliased);
+      assertArrayEquals(expected, aliased, 0);
+      aliased = b.clone();
+      Quaternions.multiply(a, aliased, aliased);
+      assertArrayEquals(expected, aliased, 0);
+
+      Quaternions.nlerp(a, b, 0.3, expected);
+      aliased = a.clone();
+      Quaternions.nlerp(aliased, b, 0.3, aliased);
+      assertArrayEquals(expected, aliased, 0);
+
+      Quaternions.conjugate(a, expected);
+      aliased = a.clone();
+      Quaternions.conjugate(aliased, aliased);
+      assertArrayEquals(expected, aliased, 0);
+
+      double[] scaled = {2 * a[0], 2 * a[1], 2 * a[2], 2 * a[3]};
+      Quaternions.normalize(scaled, expected);
+      Quaternions.normalize(scaled, scaled);
+      assertArrayEquals(expected, scaled, 0);
+
+      double[] v = randomVector();
+      double[] rotated = new double[3];
+      Quaternions.rotate(a, v, rotated);
+      Quaternions.rotate(a, v, v);
+      assertArrayEquals(rotated, v, 0);
+    }
+  }
+
+  @Test
+  public void nlerpTakesTheShortWay() {
+    double[] a = {1, 0, 0, 0};
+    double[] b = new double[4];
+    double[] out = new double[4];
+    Quaternions.fromAxisAngle(0, 0, 1, 0.2, b);
+    Quaternions.conjugate(b, b);
+    // -b is the same rotation as b.
+    Quaternions.set(-b[0], -b[1], -b[2], -b[3], b);
+    Quaternions.nlerp(a, b, 0.5, out);
+    double[] expected = new double[4];
+    Quaternions.fromAxisAngle(0, 0, 1, -0.1, expected);
+    assertSameRotation(expected, out);
+  }
+
+  @Test
+  public void rotationVectorDerivesW() {
+    double[] expected = new double[4];
+    double[] q = new double[4];
+    Quaternions.fromAxisAngle(0, 1, 0, 0.8, expected);
+    Quaternions.fromRotationVector(
+        new float[] {(float) expected[1], (float) expected[2], (float) expected[3]}, q);
+    assertArrayEquals(expected, q, 1e-6);
+    Quaternions.fromRotationVector(new float[] {(float) expected[1], (float) expected[2],
+        (float) expected[3], (float) expected[0], 0}, q);
+    assertArrayEquals(expected, q, 1e-6);
+  }
+
+  @Test
+  public void normalizeTurnsZeroIntoIdentity() {
+    double[] q = new double[4];
+    Quaternions.normalize(q, q);
+    assertArrayEquals(new double[] {1, 0, 0, 0}, q, 0);
+  }
+}
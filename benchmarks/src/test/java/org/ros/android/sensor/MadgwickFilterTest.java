@@ -0,0 +1,104 @@
+package org.ros.android.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.ros.android.math.Quaternions;
+
+/**
+ * Replays synthetic traces of a phone rocking around two axes at 200 Hz, with the gyroscope and
+ * accelerometer readings it would produce, and compares the fused roll and pitch to the truth.
+ */
+public class MadgwickFilterTest {
+
+  private static final double DT = 0.005;
+  private static final double GRAVITY = 9.81;
+  /** Roll and pitch may lag the rocking motion by this much once the filter has settled. */
+  private static final double TRACKING_BOUND = 0.015;
+
+  private final MadgwickFilter filter = new MadgwickFilter();
+  private final double[] quaternion = new double[4];
+  private final double[] euler = new double[3];
+
+  private static double roll(double t) {
+    return 0.5 * Math.sin(Math.PI * t);
+  }
+
+  private static double pitch(double t) {
+    return 0.3 * Math.sin(1.4 * Math.PI * t);
+  }
+
+  /**
+   * Feeds the reading of time {@code t} of the rocking trace.
+   */
+  private void update(double t) {
+    double roll = roll(t);
+    double pitch = pitch(t);
+    double rollRate = 0.5 * Math.PI * Math.cos(Math.PI * t);
+    double pitchRate = 0.3 * 1.4 * Math.PI * Math.cos(1.4 * Math.PI * t);
+    filter.update(rollRate, Math.cos(roll) * pitchRate, -Math.sin(roll) * pitchRate,
+        -GRAVITY * Math.sin(pitch), GRAVITY * Math.cos(pitch) * Math.sin(roll),
+        GRAVITY * Math.cos(pitch) * Math.cos(roll), DT);
+  }
+
+  /**
+   * @return the largest roll or pitch error over the trace from {@code from} to {@code to} seconds
+   */
+  private double maxError(double from, double to) {
+    double maxError = 0;
+    for (int i = (int) Math.round(from / DT); i < Math.round(to / DT); i++) {
+      double t = i * DT;
+      update(t);
+      filter.getQuaternion(quaternion);
+      Quaternions.toEuler(quaternion, euler);
+      maxError = Math.max(maxError, Math.abs(euler[0] - roll(t)));
+      maxError = Math.max(maxError, Math.abs(euler[1] - pitch(t)));
+    }
+    return maxError;
+  }
+
+  @Test
+  public void initializesFromGravity() {
+    assertFalse(filter.isInitialized());
+    filter.update(0, 0, 0, -GRAVITY * Math.sin(0.2), GRAVITY * Math.cos(0.2) * Math.sin(-0.4),
+        GRAVITY * Math.cos(0.2) * Math.cos(-0.4), DT);
+    assertTrue(filter.isInitialized());
+    filter.getQuaternion(quaternion);
+    Quaternions.toEuler(quaternion, euler);
+    assertEquals(-0.4, euler[0], 1e-9);
+    assertEquals(0.2, euler[1], 1e-9);
+    assertEquals(0, euler[2], 1e-9);
+  }
+
+  @Test
+  public void tracksRollAndPitchOfRockingTrace() {
+    update(0);
+    assertTrue(filter.isInitialized());
+    assertTrue(maxError(DT, 20) < TRACKING_BOUND);
+  }
+
+  @Test
+  public void convergesFromWrongInitialAttitude() {
+    // Starts from gravity measured at roll 1 and pitch -0.6 while the phone is at roll 0, pitch 0.
+    filter.update(0, 0, 0, GRAVITY * Math.sin(0.6), GRAVITY * Math.cos(0.6) * Math.sin(1),
+        GRAVITY * Math.cos(0.6) * Math.cos(1), DT);
+    assertTrue(maxError(DT, 1) > 0.5);
+    // The default gain corrects about 0.1 rad/s, so the error is gone within ten seconds.
+    maxError(1, 10);
+    assertTrue(maxError(10, 20) < TRACKING_BOUND);
+  }
+
+  @Test
+  public void integratesTheGyroscopeWithoutAcceleration() {
+    filter.update(0, 0, 0, 0, 0, GRAVITY, DT);
+    for (int i = 0; i < 200; i++) {
+      filter.update(0.5, 0, 0, 0, 0, 0, DT);
+    }
+    filter.getQuaternion(quaternion);
+    Quaternions.toEuler(quaternion, euler);
+    assertEquals(0.5, euler[0], 1e-3);
+    assertEquals(0, euler[1], 1e-9);
+  }
+}
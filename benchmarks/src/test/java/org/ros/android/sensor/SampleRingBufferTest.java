@@ -0,0 +1,116 @@
+package org.ros.android.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SampleRingBufferTest {
+
+  private static final long SAMPLES = 2000000;
+  private static final int CAPACITY = 16;
+
+  @Test
+  public void interpolatesBetweenAndHoldsAfterSamples() {
+    SampleRingBuffer buffer = new SampleRingBuffer(3, 4, false);
+    double[] result = new double[3];
+    assertTrue(buffer.isEmpty());
+    assertEquals(Long.MIN_VALUE, buffer.getNewestTimestamp());
+    assertEquals(-1, buffer.interpolate(100, result));
+
+    buffer.add(100, 1, 2, 3);
+    buffer.add(200, 3, 4, 5);
+    assertEquals(100, buffer.getOldestTimestamp());
+    assertEquals(200, buffer.getNewestTimestamp());
+    assertEquals(25, buffer.interpolate(125, result));
+    assertEquals(1.5, result[0], 1e-12);
+    assertEquals(3.5, result[2], 1e-12);
+    assertEquals(50, buffer.interpolate(250, result));
+    assertEquals(3, result[0], 0);
+    assertEquals(-1, buffer.interpolate(99, result));
+  }
+
+  @Test
+  public void keepsCapacitySamplesAndClearsWhenTheClockGoesBack() {
+    SampleRingBuffer buffer = new SampleRingBuffer(1, 4, false);
+    for (int i = 1; i <= 10; i++) {
+      buffer.add(i * 100, new double[] {i});
+    }
+    assertEquals(700, buffer.getOldestTimestamp());
+    assertEquals(1000, buffer.getNewestTimestamp());
+
+    buffer.add(50, new double[] {42});
+    assertEquals(50, buffer.getOldestTimestamp());
+    assertEquals(50, buffer.getNewestTimestamp());
+    double[] result = new double[1];
+    assertEquals(0, buffer.interpolate(50, result));
+    assertEquals(42, result[0], 0);
+
+    buffer.clear();
+    assertTrue(buffer.isEmpty());
+  }
+
+  @Test
+  public void interpolatesAnglesTheShortWay() {
+    SampleRingBuffer buffer = new SampleRingBuffer(1, 2, true);
+    buffer.add(0, new double[] {Math.PI - 0.1});
+    buffer.add(100, new double[] {-Math.PI + 0.1});
+    double[] result = new double[1];
+    buffer.interpolate(50, result);
+    assertEquals(Math.PI, Math.abs(result[0]), 1e-12);
+  }
+
+  /**
+   * Sample {@code i} is taken at time {@code 1000 i} and holds i, 2i and 3i, so any interpolation
+   * of consistent samples is linear in time and a torn or overwritten read shows up as values that
+   * do not belong together.
+   */
+  @Test(timeout = 60000)
+  public void concurrentReaderNeverSeesTornOrOverwrittenSamples() throws InterruptedException {
+    final SampleRingBuffer buffer = new SampleRingBuffer(3, CAPACITY, false);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (long i = 1; i <= SAMPLES; i++) {
+          buffer.add(1000 * i, i, 2.0 * i, 3.0 * i);
+        }
+      }
+    });
+    writer.start();
+
+    double[] result = new double[3];
+    long lastNewest = Long.MIN_VALUE;
+    long interpolations = 0;
+    while (writer.isAlive() && failure.get() == null) {
+      long newest = buffer.getNewestTimestamp();
+      long oldest = buffer.getOldestTimestamp();
+      if (newest < lastNewest) {
+        failure.set("Newest timestamp went back from " + lastNewest + " to " + newest);
+      }
+      lastNewest = newest;
+      // Read after the newest one, the oldest timestamp may have passed it meanwhile.
+      if (oldest == Long.MIN_VALUE || oldest >= newest) {
+        continue;
+      }
+      // Between the oldest two samples, which the writer overwrites next.
+      long timestamp = oldest + 500;
+      if (buffer.interpolate(timestamp, result) < 0) {
+        continue;
+      }
+      interpolations++;
+      double expected = timestamp / 1000.0;
+      if (Math.abs(result[0] - expected) > 1e-6 || Math.abs(result[1] - 2 * expected) > 1e-6
+          || Math.abs(result[2] - 3 * expected) > 1e-6) {
+        failure.set("At " + timestamp + " read " + result[0] + ", " + result[1] + ", " + result[2]);
+      }
+    }
+    writer.join();
+    assertNull(failure.get());
+    assertTrue(interpolations > 0);
+    assertEquals(1000 * SAMPLES, buffer.getNewestTimestamp());
+  }
+}
@@ -0,0 +1,194 @@
+package org.ros.android.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link SensorRegistry} on a {@link SyntheticSensorSource}, the path the sensor nodes take
+ * on a device.
+ */
+public class SensorRegistryTest {
+
+  // The values of Sensor.TYPE_ACCELEROMETER, TYPE_GYROSCOPE and TYPE_MAGNETIC_FIELD.
+  private static final int ACCELEROMETER = 1;
+  private static final int GYROSCOPE = 4;
+  private static final int MAGNETIC_FIELD = 2;
+
+  private static final long MILLIS = 1000000L;
+
+  private static final class RecordingListener implements SensorSampleListener {
+
+    final List<Long> timestamps = new ArrayList<Long>();
+    final List<float[]> values = new ArrayList<float[]>();
+    int lastSensorType = -1;
+
+    @Override
+    public void onSensorSample(int sensorType, long timestampNanos, float[] values) {
+      lastSensorType = sensorType;
+      timestamps.add(timestampNanos);
+      this.values.add(values.clone());
+    }
+  }
+
+  private RecordingListener listener;
+
+  @Before
+  public void setUp() {
+    listener = new RecordingListener();
+  }
+
+  /**
+   * Emits one gyroscope sample per millisecond from {@code fromMillis} up to, not including,
+   * {@code toMillis}.
+   */
+  private static void emitGyroscope(SyntheticSensorSource source, long fromMillis, long toMillis) {
+    for (long t = fromMillis; t < toMillis; t++) {
+      source.emit(GYROSCOPE, t * MILLIS, t, 2 * t, 3 * t);
+    }
+  }
+
+  @Test
+  public void decimatesToTheSamplingPeriod() {
+    SyntheticSensorSource source = new SyntheticSensorSource(0, GYROSCOPE);
+    SensorRegistry registry = new SensorRegistry(source);
+    SensorRegistry.Registration registration = registry.register(GYROSCOPE, 5000, 0, listener);
+
+    emitGyroscope(source, 0, 1000);
+
+    assertEquals(200, listener.timestamps.size());
+    for (int i = 1; i < listener.timestamps.size(); i++) {
+      assertEquals(5 * MILLIS, listener.timestamps.get(i) - listener.timestamps.get(i - 1));
+    }
+    assertEquals(GYROSCOPE, listener.lastSensorType);
+    assertEquals(200, registration.getSampleCount());
+    assertEquals(200, source.getDeliveredCount());
+  }
+
+  @Test
+  public void batchesUntilTheReportLatencyElapsed() {
+    SyntheticSensorSource source = new SyntheticSensorSource(100, GYROSCOPE);
+    SensorRegistry registry = new SensorRegistry(source);
+    registry.register(GYROSCOPE, 5000, 20000, listener);
+
+    // Samples at 0, 5, 10 and 15 ms wait in the FIFO.
+    emitGyroscope(source, 0, 20);
+    assertTrue(listener.timestamps.isEmpty());
+    // The sample at 20 ms is 20 ms after the oldest one, so all five are delivered together.
+    emitGyroscope(source, 20, 21);
+    assertEquals(5, listener.timestamps.size());
+    assertEquals(0, (long) listener.timestamps.get(0));
+    assertEquals(20 * MILLIS, (long) listener.timestamps.get(4));
+    assertEquals(10, listener.values.get(2)[0], 0);
+    assertEquals(30, listener.values.get(2)[2], 0);
+  }
+
+  @Test
+  public void deliversWhenTheFifoIsFull() {
+    SyntheticSensorSource source = new SyntheticSensorSource(3, GYROSCOPE);
+    SensorRegistry registry = new SensorRegistry(source);
+    registry.register(GYROSCOPE, 0, 1000000, listener);
+
+    emitGyroscope(source, 0, 2);
+    assertTrue(listener.timestamps.isEmpty());
+    emitGyroscope(source, 2, 3);
+    assertEquals(3, listener.timestamps.size());
+    emitGyroscope(source, 3, 5);
+    assertEquals(3, listener.timestamps.size());
+  }
+
+  @Test
+  public void flushDeliversWaitingSamples() {
+    SyntheticSensorSource source = new SyntheticSensorSource(100, GYROSCOPE, ACCELEROMETER);
+    SensorRegistry registry = new SensorRegistry(source);
+    SensorRegistry.Registration gyroscope = registry.register(GYROSCOPE, 0, 1000000, listener);
+    RecordingListener accelerometerListener = new RecordingListener();
+    registry.register(ACCELEROMETER, 0, 1000000, accelerometerListener);
+
+    emitGyroscope(source, 0, 4);
+    source.emit(ACCELEROMETER, 0, 0, 0, 9.81f);
+    gyroscope.flush();
+    assertEquals(4, listener.timestamps.size());
+    assertTrue(accelerometerListener.timestamps.isEmpty());
+
+    registry.flush();
+    assertEquals(1, accelerometerListener.timestamps.size());
+    assertEquals(ACCELEROMETER, accelerometerListener.lastSensorType);
+  }
+
+  @Test
+  public void emittedValuesAreCopied() {
+    SyntheticSensorSource source = new SyntheticSensorSource(10, GYROSCOPE);
+    SensorRegistry registry = new SensorRegistry(source);
+    registry.register(GYROSCOPE, 0, 1000000, listener);
+
+    float[] values = {1, 2, 3};
+    source.emit(GYROSCOPE, 0, values);
+    values[0] = 42;
+    registry.flush();
+    assertEquals(1, listener.values.get(0)[0], 0);
+  }
+
+  @Test
+  public void setRateReregisters() {
+    SyntheticSensorSource source = new SyntheticSensorSource(100, GYROSCOPE);
+    SensorRegistry registry = new SensorRegistry(source);
+    SensorRegistry.Registration registration = registry.register(GYROSCOPE, 5000, 20000, listener);
+
+    assertTrue(registration.setRate(10000, 0));
+    assertEquals(10000, registration.getSamplingPeriodUs());
+    assertEquals(0, registration.getMaxReportLatencyUs());
+    emitGyroscope(source, 0, 100);
+    // Delivered right away at the new period.
+    assertEquals(10, listener.timestamps.size());
+    assertEquals(1, registry.getRegistrations().size());
+  }
+
+  @Test
+  public void missingSensorIsNotRegistered() {
+    SensorRegistry registry = new SensorRegistry(new SyntheticSensorSource(0, GYROSCOPE));
+    assertFalse(registry.getSource().hasSensor(MAGNETIC_FIELD));
+    assertNull(registry.register(MAGNETIC_FIELD, 0, 0, listener));
+    assertTrue(registry.getRegistrations().isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeSamplingPeriodIsRejected() {
+    new SensorRegistry(new SyntheticSensorSource(0, GYROSCOPE)).register(GYROSCOPE, -1, 0, listener);
+  }
+
+  @Test
+  public void unregisterStopsDelivery() {
+    SyntheticSensorSource source = new SyntheticSensorSource(0, GYROSCOPE);
+    SensorRegistry registry = new SensorRegistry(source);
+    SensorRegistry.Registration registration = registry.register(GYROSCOPE, 0, 0, listener);
+    emitGyroscope(source, 0, 3);
+    registry.unregister(registration);
+    emitGyroscope(source, 3, 6);
+    assertEquals(3, listener.timestamps.size());
+    assertTrue(registry.getRegistrations().isEmpty());
+  }
+
+  @Test
+  public void shutdownUnregistersEverything() {
+    SyntheticSensorSource source = new SyntheticSensorSource(0, GYROSCOPE, ACCELEROMETER);
+    SensorRegistry registry = new SensorRegistry(source);
+    assertNotNull(registry.register(GYROSCOPE, 0, 0, listener));
+    assertNotNull(registry.register(ACCELEROMETER, 0, 0, listener));
+    assertEquals(2, registry.getRegistrations().size());
+
+    registry.shutdown();
+    emitGyroscope(source, 0, 3);
+    source.emit(ACCELEROMETER, 0, 0, 0, 9.81f);
+    assertTrue(listener.timestamps.isEmpty());
+    assertTrue(registry.getRegistrations().isEmpty());
+  }
+}
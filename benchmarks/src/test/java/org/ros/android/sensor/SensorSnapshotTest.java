@@ -0,0 +1,80 @@
+package org.ros.android.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SensorSnapshotTest {
+
+  private static final long SAMPLES = 5000000;
+
+  @Test
+  public void readerTakesOnlyNewerSamples() {
+    SensorSnapshot snapshot = new SensorSnapshot(3);
+    assertFalse(snapshot.update());
+    assertEquals(0, snapshot.getSequence());
+
+    snapshot.set(1, 2, 3);
+    snapshot.publish(100);
+    snapshot.set(4, 5, 6);
+    snapshot.publish(200);
+    assertTrue(snapshot.hasUpdate());
+    assertTrue(snapshot.update());
+    assertEquals(2, snapshot.getSequence());
+    assertEquals(200, snapshot.getTimestampNanos());
+    assertEquals(4, snapshot.get(0), 0);
+    assertEquals(6, snapshot.get(2), 0);
+    assertFalse(snapshot.hasUpdate());
+    assertFalse(snapshot.update());
+    assertEquals(2, snapshot.getSequence());
+  }
+
+  /**
+   * Every sample holds its sequence number times 1, 2 and 3 and the sequence number as timestamp,
+   * so a torn read shows up as values that do not belong together.
+   */
+  @Test(timeout = 60000)
+  public void concurrentReaderNeverSeesTornOrOlderSamples() throws InterruptedException {
+    final SensorSnapshot snapshot = new SensorSnapshot(3);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (long sequence = 1; sequence <= SAMPLES; sequence++) {
+          snapshot.set(sequence, 2.0 * sequence, 3.0 * sequence);
+          snapshot.publish(sequence);
+        }
+      }
+    });
+    writer.start();
+
+    long lastRead = 0;
+    long reads = 0;
+    while (lastRead < SAMPLES && failure.get() == null) {
+      if (!snapshot.update()) {
+        continue;
+      }
+      reads++;
+      long sequence = snapshot.getSequence();
+      double x = snapshot.get(0);
+      if (snapshot.getTimestampNanos() != sequence || x != sequence || snapshot.get(1) != 2 * x
+          || snapshot.get(2) != 3 * x) {
+        failure.set("Torn sample " + sequence + ": " + x + ", " + snapshot.get(1) + ", "
+            + snapshot.get(2));
+      } else if (sequence <= lastRead) {
+        failure.set("Sample " + sequence + " after " + lastRead);
+      }
+      lastRead = sequence;
+    }
+    writer.join();
+
+    assertNull(failure.get(), failure.get());
+    assertEquals(SAMPLES, lastRead);
+    assertTrue(reads > 1);
+  }
+}
@@ -16,20 +16,166 @@
 
 package org.ros.android;
 
+import com.google.common.base.Preconditions;
+
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import org.jboss.netty.buffer.ChannelBuffer;
 
 /**
+ * Decodes sensor_msgs/CompressedImage messages into a small pool of reused bitmaps.
+ * <p>
+ * Each message is decoded with the smallest power of two {@code inSampleSize} that keeps it at
+ * least as large as the target size, if one is set, and into the oldest bitmap of the pool through
+ * {@code inBitmap} when that bitmap can hold it. A returned bitmap is therefore only valid until
+ * {@code poolSize - 1} further calls have returned; callers that keep bitmaps longer must copy
+ * them. Buffers without a backing array are copied into a reusable array first.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class BitmapFromCompressedImage implements
         MessageCallable<Bitmap, sensor_msgs.CompressedImage> {
 
+  public static final int DEFAULT_POOL_SIZE = 3;
+
+  private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+  private final Bitmap[] pool;
+  private final byte[] tempStorage = new byte[TEMP_STORAGE_SIZE];
+  private int next;
+  private byte[] copy = new byte[0];
+  private volatile int targetWidth;
+  private volatile int targetHeight;
+  private long reusedCount;
+  private long allocatedCount;
+
+  public BitmapFromCompressedImage() {
+    this(DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * @param poolSize
+   *          the number of bitmaps decoded into in turn; at least 2 so that the bitmap on screen is
+   *          not decoded into
+   */
+  public BitmapFromCompressedImage(int poolSize) {
+    Preconditions.checkArgument(poolSize >= 2, "poolSize must be at least 2, was %s", poolSize);
+    pool = new Bitmap[poolSize];
+  }
+
+  /**
+   * Sets the size the bitmaps are shown at, usually the size of the view. Images are subsampled
+   * by powers of two as long as they stay at least this large. A size of zero decodes at full
+   * resolution.
+   */
+  public void setTargetSize(int width, int height) {
+    targetWidth = Math.max(0, width);
+    targetHeight = Math.max(0, height);
+  }
+
   @Override
-  public Bitmap call(sensor_msgs.CompressedImage message) {
+  public synchronized Bitmap call(sensor_msgs.CompressedImage message) {
+    Bitmap bitmap = decode(message, pool[next]);
+    if (bitmap != null) {
+      pool[next] = bitmap;
+      next = (next + 1) % pool.length;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Decodes {@code message} without using the pool, into {@code reusable} if it is not
+   * {@code null} and can hold the image.
+   *
+   * @return the decoded bitmap, or {@code null} if the image could not be decoded
+   */
+  public synchronized Bitmap decode(sensor_msgs.CompressedImage message, Bitmap reusable) {
     ChannelBuffer buffer = message.getData();
-    byte[] data = buffer.array();
-    return BitmapFactory.decodeByteArray(data, buffer.arrayOffset(), buffer.readableBytes());
+    int length = buffer.readableBytes();
+    byte[] data;
+    int offset;
+    if (buffer.hasArray()) {
+      data = buffer.array();
+      offset = buffer.arrayOffset() + buffer.readerIndex();
+    } else {
+      if (copy.length < length) {
+        copy = new byte[length];
+      }
+      buffer.getBytes(buffer.readerIndex(), copy, 0, length);
+      data = copy;
+      offset = 0;
+    }
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inTempStorage = tempStorage;
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, offset, length, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSizeOf(options.outWidth, options.outHeight);
+    options.inMutable = true;
+
+    if (canDecodeInto(reusable, options)) {
+      options.inBitmap = reusable;
+    }
+    Bitmap bitmap;
+    try {
+      bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+    } catch (IllegalArgumentException e) {
+      // The decoder refused the bitmap after all, e.g. because of a different config.
+      options.inBitmap = null;
+      bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+    }
+    if (bitmap == null) {
+      return null;
+    }
+    if (bitmap == options.inBitmap) {
+      reusedCount++;
+    } else {
+      allocatedCount++;
+    }
+    return bitmap;
+  }
+
+  private int sampleSizeOf(int width, int height) {
+    int sampleSize = 1;
+    if (targetWidth > 0 && targetHeight > 0) {
+      while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+        sampleSize *= 2;
+      }
+    }
+    return sampleSize;
+  }
+
+  private static boolean canDecodeInto(Bitmap bitmap, BitmapFactory.Options options) {
+    if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+      return false;
+    }
+    int sampleSize = options.inSampleSize;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      long width = (options.outWidth + sampleSize - 1) / sampleSize;
+      long height = (options.outHeight + sampleSize - 1) / sampleSize;
+      return width * height * 4 <= bitmap.getAllocationByteCount();
+    }
+    // Before KitKat only bitmaps of the same size can be reused, without subsampling.
+    return sampleSize == 1 && bitmap.getWidth() == options.outWidth
+        && bitmap.getHeight() == options.outHeight;
+  }
+
+  /**
+   * @return the number of images decoded into a bitmap of the pool
+   */
+  public synchronized long getReusedCount() {
+    return reusedCount;
+  }
+
+  /**
+   * @return the number of images for which a new bitmap was allocated
+   */
+  public synchronized long getAllocatedCount() {
+    return allocatedCount;
   }
 }
@@ -19,28 +19,43 @@ package org.ros.android;
 import com.google.common.base.Preconditions;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.android.image.PixelRowConverter;
 
 /**
+ * Converts sensor_msgs/Image messages in rgb8, bgr8, rgba8, bgra8, mono8 or mono16 to bitmaps.
+ * Rows are converted in bulk into a reusable row buffer and written with
+ * {@link Bitmap#setPixels}, honoring the step of the message. Instances are not thread-safe.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class BitmapFromImage implements MessageCallable<Bitmap, sensor_msgs.Image> {
 
+  private final PixelRowConverter converter = new PixelRowConverter();
+  private int[] rowPixels = new int[0];
+
   @Override
   public Bitmap call(sensor_msgs.Image message) {
-    Preconditions.checkArgument(message.getEncoding().equals("rgb8"));
-    Bitmap bitmap =
-            Bitmap.createBitmap(message.getWidth(), message.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-    for (int x = 0; x < message.getWidth(); x++) {
-      for (int y = 0; y < message.getHeight(); y++) {
-        ChannelBuffer data = message.getData();
-        byte red = data.getByte(y * message.getStep() + 3 * x);
-        byte green = data.getByte(y * message.getStep() + 3 * x + 1);
-        byte blue = data.getByte(y * message.getStep() + 3 * x + 2);
-        bitmap.setPixel(x, y, Color.argb(255, red & 0xFF, green & 0xFF, blue & 0xFF));
-      }
+    PixelRowConverter.Encoding encoding =
+        PixelRowConverter.Encoding.fromString(message.getEncoding());
+    int width = message.getWidth();
+    int height = message.getHeight();
+    int step = message.getStep();
+    ChannelBuffer data = message.getData();
+    Preconditions.checkArgument(step >= width * encoding.getBytesPerPixel(),
+        "step %s is too small for width %s", step, width);
+    Preconditions.checkArgument(data.readableBytes() >= step * height,
+        "data holds %s bytes, expected %s", data.readableBytes(), step * height);
+
+    if (rowPixels.length < width) {
+      rowPixels = new int[width];
+    }
+    boolean bigEndian = message.getIsBigendian() != 0;
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    int index = data.readerIndex();
+    for (int y = 0; y < height; y++, index += step) {
+      converter.convertRow(data, index, width, encoding, bigEndian, rowPixels);
+      bitmap.setPixels(rowPixels, 0, width, 0, y, width, 1);
     }
     return bitmap;
   }
@@ -0,0 +1,54 @@
+package org.ros.android;
+
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
+import org.ros.message.MessageFactory;
+
+import java.util.Locale;
+
+/**
+ * Collects named values into a diagnostic_msgs/DiagnosticStatus so that nodes can expose their
+ * internal state on the diagnostics topic, where it can be monitored and plotted.
+ */
+public class DiagnosticStatusBuilder {
+
+  private final MessageFactory messageFactory;
+  private final DiagnosticStatus status;
+
+  public DiagnosticStatusBuilder(MessageFactory messageFactory, String name) {
+    this.messageFactory = messageFactory;
+    status = messageFactory.newFromType(DiagnosticStatus._TYPE);
+    status.setName(name);
+    status.setLevel(DiagnosticStatus.OK);
+  }
+
+  public DiagnosticStatusBuilder setHardwareId(String hardwareId) {
+    status.setHardwareId(hardwareId);
+    return this;
+  }
+
+  public DiagnosticStatusBuilder setMessage(String message) {
+    status.setMessage(message);
+    return this;
+  }
+
+  public DiagnosticStatusBuilder add(String key, String value) {
+    KeyValue keyValue = messageFactory.newFromType(KeyValue._TYPE);
+    keyValue.setKey(key);
+    keyValue.setValue(value);
+    status.getValues().add(keyValue);
+    return this;
+  }
+
+  public DiagnosticStatusBuilder add(String key, long value) {
+    return add(key, Long.toString(value));
+  }
+
+  public DiagnosticStatusBuilder add(String key, double value) {
+    return add(key, String.format(Locale.US, "%.3f", value));
+  }
+
+  public DiagnosticStatus build() {
+    return status;
+  }
+}
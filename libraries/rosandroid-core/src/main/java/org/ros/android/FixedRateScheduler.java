@@ -0,0 +1,153 @@
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop at a fixed rate with {@link System#nanoTime()} deadlines, so the rate neither
+ * drifts with the time the work takes nor is rounded to milliseconds.
+ * <p>
+ * Each run is late by some jitter, recorded per period, and deadlines advance by exactly one
+ * period. A run that starts after the following deadline already passed has overrun; how the
+ * schedule recovers from that is set by the {@link CatchUpPolicy}. Loops that also wait for work
+ * report runs that waited for it rather than for the deadline through {@link #onIdleRun(long)},
+ * so the statistics only cover the schedule's own lateness. A rate of zero makes every
+ * moment a deadline. One thread runs the schedule; others may change the rate and read the
+ * deadline and statistics.
+ */
+public class FixedRateScheduler {
+
+  public enum CatchUpPolicy {
+    /** Runs the missed periods back to back until the schedule is caught up. */
+    CATCH_UP,
+    /** Drops the missed periods and keeps the phase of the schedule. */
+    SKIP,
+    /** Starts a new schedule one period after the late run. */
+    RESTART
+  }
+
+  private final CatchUpPolicy policy;
+  private final LatencyHistogram jitter = new LatencyHistogram();
+  private final LatencyHistogram overrun = new LatencyHistogram();
+  private volatile long periodNanos;
+  private volatile long deadlineNanos;
+  private volatile long runCount;
+  private volatile long missedPeriodCount;
+
+  public FixedRateScheduler(double hertz, CatchUpPolicy policy) {
+    this.policy = Preconditions.checkNotNull(policy);
+    setRate(hertz);
+    deadlineNanos = System.nanoTime();
+  }
+
+  /**
+   * Changes the rate from the next deadline on. Zero removes the limit.
+   */
+  public void setRate(double hertz) {
+    Preconditions.checkArgument(hertz >= 0, "hertz must not be negative, was %s", hertz);
+    periodNanos = hertz > 0 ? Math.round(1e9 / hertz) : 0;
+  }
+
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  public long getDeadlineNanos() {
+    return deadlineNanos;
+  }
+
+  public boolean isDue(long nowNanos) {
+    return nowNanos - deadlineNanos >= 0;
+  }
+
+  /**
+   * Parks the calling thread until the deadline.
+   *
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  public void await() throws InterruptedException {
+    long remaining;
+    while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(this, remaining);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Records a run starting at {@code nowNanos}, at or after the deadline, and moves the deadline
+   * on.
+   */
+  public void onRun(long nowNanos) {
+    long period = periodNanos;
+    long lateness = Math.max(0, nowNanos - deadlineNanos);
+    jitter.record(lateness);
+    runCount++;
+    if (period == 0) {
+      deadlineNanos = nowNanos;
+      return;
+    }
+    long missed = lateness / period;
+    if (missed > 0) {
+      overrun.record(lateness - period);
+      missedPeriodCount += missed;
+    }
+    switch (policy) {
+      case CATCH_UP:
+        deadlineNanos += period;
+        break;
+      case SKIP:
+        deadlineNanos += (missed + 1) * period;
+        break;
+      default:
+        deadlineNanos = missed > 0 ? nowNanos + period : deadlineNanos + period;
+        break;
+    }
+  }
+
+  /**
+   * Records a run that started late because the loop waited for work, not for the deadline, e.g.
+   * the first sample after a pause. It counts as a run but not towards jitter, overruns or missed
+   * periods, and starts a new schedule one period after it.
+   */
+  public void onIdleRun(long nowNanos) {
+    runCount++;
+    restart(nowNanos);
+  }
+
+  /**
+   * Starts a new schedule with the next deadline one period after {@code nowNanos}, e.g. after
+   * something else made the run unnecessary.
+   */
+  public void restart(long nowNanos) {
+    deadlineNanos = nowNanos + periodNanos;
+  }
+
+  /**
+   * @return how late runs started after their deadline
+   */
+  public LatencyHistogram getJitter() {
+    return jitter;
+  }
+
+  /**
+   * @return by how much overrunning runs missed the deadline after theirs
+   */
+  public LatencyHistogram getOverrun() {
+    return overrun;
+  }
+
+  public long getRunCount() {
+    return runCount;
+  }
+
+  /**
+   * @return the number of periods without a run of their own because of overruns
+   */
+  public long getMissedPeriodCount() {
+    return missedPeriodCount;
+  }
+}
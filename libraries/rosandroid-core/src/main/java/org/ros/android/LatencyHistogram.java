@@ -0,0 +1,120 @@
+package org.ros.android;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with a relative error of at most 12.5%, cheap enough to
+ * record every frame or sensor event from any thread.
+ * <p>
+ * Durations are counted in microseconds, in eight linear sub-buckets per power of two. Recording
+ * never allocates, and percentiles are computed from the counts when they are read, so they
+ * cover everything recorded since the last {@link #reset()}.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  /**
+   * Records one duration. Negative durations count as zero.
+   */
+  public void record(long nanos) {
+    counts.incrementAndGet(bucketOf(Math.max(0, nanos / 1000)));
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  private static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * @return the midpoint of {@code bucket} in microseconds
+   */
+  private static double valueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1) / 2.0;
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  public double getMeanMillis() {
+    long count = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long bucketCount = counts.get(i);
+      count += bucketCount;
+      sum += bucketCount * valueOf(i);
+    }
+    return count > 0 ? sum / count / 1000 : 0;
+  }
+
+  /**
+   * @param percentile
+   *          in [0, 100]
+   * @return the duration below which {@code percentile} percent of the recorded durations fall, or
+   *         zero if nothing was recorded
+   */
+  public double getPercentileMillis(double percentile) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return valueOf(i) / 1000;
+      }
+    }
+    return getMaxMillis();
+  }
+
+  public double getMaxMillis() {
+    for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+      if (counts.get(i) > 0) {
+        return valueOf(i) / 1000;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Adds the count, mean, median, 99th percentile and maximum as {@code <prefix>_count},
+   * {@code <prefix>_mean_ms} and so on.
+   */
+  public void addTo(DiagnosticStatusBuilder status, String prefix) {
+    status.add(prefix + "_count", getCount())
+        .add(prefix + "_mean_ms", getMeanMillis())
+        .add(prefix + "_p50_ms", getPercentileMillis(50))
+        .add(prefix + "_p99_ms", getPercentileMillis(99))
+        .add(prefix + "_max_ms", getMaxMillis());
+  }
+}
@@ -0,0 +1,13 @@
+package org.ros.android;
+
+/**
+ * Appends the text form of a message to a reused {@link StringBuilder}, so formatting does not
+ * allocate intermediate strings.
+ *
+ * @param <T>
+ *          the message type
+ */
+public interface MessageFormatter<T> {
+
+  void format(T message, StringBuilder builder);
+}
@@ -17,14 +17,17 @@
 package org.ros.android;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import geometry_msgs.PoseStamped;
+import org.ros.android.math.Quaternions;
+import org.ros.android.sensor.AndroidSensorSource;
+import org.ros.android.sensor.SensorRegistry;
+import org.ros.android.sensor.SensorSampleListener;
 import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.topic.Publisher;
 
 /**
@@ -32,44 +35,55 @@ import org.ros.node.topic.Publisher;
  */
 public class OrientationPublisher extends AbstractNodeMain {
 
+  private static final int SAMPLING_PERIOD_US = 500000;
+
+  // Set if the node creates its own registry on start and shuts it down again with the node.
   private final SensorManager sensorManager;
 
-  private OrientationListener orientationListener;
+  private SensorRegistry sensorRegistry;
+  private SensorRegistry.Registration registration;
 
-  private final class OrientationListener implements SensorEventListener {
+  private final class OrientationListener implements SensorSampleListener {
 
     private final Publisher<geometry_msgs.PoseStamped> publisher;
+    private final double[] quaternion = new double[4];
 
     private OrientationListener(Publisher<geometry_msgs.PoseStamped> publisher) {
       this.publisher = publisher;
     }
 
     @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-    }
-
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-      if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-        float[] quaternion = new float[4];
-        SensorManager.getQuaternionFromVector(quaternion, event.values);
-        PoseStamped pose = publisher.newMessage();
-        pose.getHeader().setFrameId("/map");
-        // TODO(damonkohler): Should get time from the Node.
-        pose.getHeader().setStamp(Time.fromMillis(System.currentTimeMillis()));
-        pose.getPose().getOrientation().setW(quaternion[0]);
-        pose.getPose().getOrientation().setX(quaternion[1]);
-        pose.getPose().getOrientation().setY(quaternion[2]);
-        pose.getPose().getOrientation().setZ(quaternion[3]);
-        publisher.publish(pose);
-      }
+    public void onSensorSample(int sensorType, long timestampNanos, float[] values) {
+      Quaternions.fromRotationVector(values, quaternion);
+      // rosjava serializes the message later, so it cannot be reused for the next event.
+      PoseStamped pose = publisher.newMessage();
+      pose.getHeader().setFrameId("/map");
+      // TODO(damonkohler): Should get time from the Node.
+      pose.getHeader().setStamp(Time.fromMillis(System.currentTimeMillis()));
+      pose.getPose().getOrientation().setW(quaternion[0]);
+      pose.getPose().getOrientation().setX(quaternion[1]);
+      pose.getPose().getOrientation().setY(quaternion[2]);
+      pose.getPose().getOrientation().setZ(quaternion[3]);
+      publisher.publish(pose);
     }
   }
 
+  /**
+   * Delivers the rotation vector on a sensor thread of its own, which only runs while the node is
+   * started.
+   */
   public OrientationPublisher(SensorManager sensorManager) {
     this.sensorManager = sensorManager;
   }
 
+  /**
+   * Registers the rotation vector with {@code sensorRegistry}, which stays owned by the caller.
+   */
+  public OrientationPublisher(SensorRegistry sensorRegistry) {
+    this.sensorManager = null;
+    this.sensorRegistry = sensorRegistry;
+  }
+
   @Override
   public GraphName getDefaultNodeName() {
     return GraphName.of("android/orientiation_sensor");
@@ -78,14 +92,31 @@ public class OrientationPublisher extends AbstractNodeMain {
   @Override
   public void onStart(ConnectedNode connectedNode) {
     try {
+      if (sensorManager != null) {
+        sensorRegistry =
+            new SensorRegistry(new AndroidSensorSource(sensorManager, "OrientationSensor"));
+      }
       Publisher<geometry_msgs.PoseStamped> publisher =
               connectedNode.newPublisher("android/orientation", "geometry_msgs/PoseStamped");
-      orientationListener = new OrientationListener(publisher);
-      Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-      // 10 Hz
-      sensorManager.registerListener(orientationListener, sensor, 500000);
+      registration = sensorRegistry.register(Sensor.TYPE_ROTATION_VECTOR, SAMPLING_PERIOD_US, 0,
+          new OrientationListener(publisher));
+      if (registration == null) {
+        connectedNode.getLog().fatal("No rotation vector sensor.");
+      }
     } catch (Exception e) {
       connectedNode.getLog().fatal(e);
     }
   }
+
+  @Override
+  public void onShutdown(Node node) {
+    if (registration != null) {
+      sensorRegistry.unregister(registration);
+      registration = null;
+    }
+    if (sensorManager != null && sensorRegistry != null) {
+      sensorRegistry.shutdown();
+      sensorRegistry = null;
+    }
+  }
 }
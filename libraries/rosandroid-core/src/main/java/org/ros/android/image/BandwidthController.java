@@ -0,0 +1,187 @@
+package org.ros.android.image;
+
+/**
+ * Closed-loop JPEG quality and resolution control for a compressed image stream.
+ * <p>
+ * The publisher reports every published frame with its size and encode time. Once per window the
+ * controller compares the measured byte rate with the bandwidth target and the mean encode time
+ * with the time an encoder may spend per frame at the target frame rate, then steps one knob:
+ * <ul>
+ * <li>encoding too slow: halve the resolution, or lower the quality at the smallest resolution
+ * <li>over bandwidth: lower the quality, or halve the resolution at the lowest quality
+ * <li>clearly under both: raise the quality, or double the resolution once the quality is at its
+ * maximum and the larger frames are expected to fit
+ * </ul>
+ * Quality and scale are read by encoder threads without locking. All measurements are exposed
+ * for plotting.
+ */
+public class BandwidthController {
+
+  private static final long WINDOW_NANOS = 1000000000L;
+  private static final double HYSTERESIS = 0.15;
+  // Doubling both dimensions roughly quadruples both the JPEG size and the encode time.
+  private static final int SCALE_STEP_COST = 4;
+
+  private final double targetBytesPerSecond;
+  private final double targetFramesPerSecond;
+
+  private int minQuality = 30;
+  private int maxQuality = 95;
+  private int qualityStep = 5;
+  private int maxScaleShift = 2;
+  private int encoderThreads = 1;
+
+  private volatile int quality = maxQuality;
+  private volatile int scaleShift;
+
+  private boolean windowStarted;
+  private long windowStartNanos;
+  private long windowBytes;
+  private int windowFrames;
+  private long windowEncodeNanos;
+
+  private double bytesPerSecond;
+  private double framesPerSecond;
+  private double encodeMillis;
+
+  public BandwidthController(double targetBytesPerSecond, double targetFramesPerSecond) {
+    if (targetBytesPerSecond <= 0 || targetFramesPerSecond <= 0) {
+      throw new IllegalArgumentException("Targets must be positive.");
+    }
+    this.targetBytesPerSecond = targetBytesPerSecond;
+    this.targetFramesPerSecond = targetFramesPerSecond;
+  }
+
+  public synchronized void setQualityRange(int minQuality, int maxQuality) {
+    if (minQuality < 1 || maxQuality > 100 || minQuality > maxQuality) {
+      throw new IllegalArgumentException("Invalid quality range: " + minQuality + "-" + maxQuality);
+    }
+    this.minQuality = minQuality;
+    this.maxQuality = maxQuality;
+    quality = Math.max(minQuality, Math.min(maxQuality, quality));
+  }
+
+  public synchronized void setQualityStep(int qualityStep) {
+    this.qualityStep = Math.max(1, qualityStep);
+  }
+
+  /**
+   * @param maxScaleShift the number of times the resolution may be halved
+   */
+  public synchronized void setMaxScaleShift(int maxScaleShift) {
+    this.maxScaleShift = Math.max(0, maxScaleShift);
+    scaleShift = Math.min(scaleShift, this.maxScaleShift);
+  }
+
+  /**
+   * @param encoderThreads the number of frames encoded in parallel, which multiplies the time
+   *        each encode may take
+   */
+  public synchronized void setEncoderThreads(int encoderThreads) {
+    this.encoderThreads = Math.max(1, encoderThreads);
+  }
+
+  /**
+   * @param bytes the size of the published frame
+   * @param encodeNanos the time spent scaling and encoding the frame
+   * @param nowNanos the current {@link System#nanoTime()}
+   */
+  public synchronized void onFramePublished(int bytes, long encodeNanos, long nowNanos) {
+    if (!windowStarted) {
+      windowStarted = true;
+      windowStartNanos = nowNanos;
+    }
+    windowBytes += bytes;
+    windowFrames++;
+    windowEncodeNanos += encodeNanos;
+
+    long elapsed = nowNanos - windowStartNanos;
+    if (elapsed < WINDOW_NANOS) {
+      return;
+    }
+    bytesPerSecond = windowBytes * 1e9 / elapsed;
+    framesPerSecond = windowFrames * 1e9 / elapsed;
+    encodeMillis = windowEncodeNanos / 1e6 / windowFrames;
+    adjust();
+
+    windowStartNanos = nowNanos;
+    windowBytes = 0;
+    windowFrames = 0;
+    windowEncodeNanos = 0;
+  }
+
+  private void adjust() {
+    double encodeBudgetMillis = 1000.0 * encoderThreads / targetFramesPerSecond;
+    if (encodeMillis > encodeBudgetMillis && framesPerSecond < targetFramesPerSecond) {
+      if (scaleShift < maxScaleShift) {
+        scaleShift++;
+      } else {
+        lowerQuality();
+      }
+    } else if (bytesPerSecond > targetBytesPerSecond * (1 + HYSTERESIS)) {
+      if (!lowerQuality() && scaleShift < maxScaleShift) {
+        scaleShift++;
+      }
+    } else if (bytesPerSecond < targetBytesPerSecond * (1 - HYSTERESIS)
+        && encodeMillis < encodeBudgetMillis * (1 - HYSTERESIS)) {
+      if (quality < maxQuality) {
+        quality = Math.min(maxQuality, quality + qualityStep);
+      } else if (scaleShift > 0
+          && bytesPerSecond * SCALE_STEP_COST < targetBytesPerSecond * (1 - HYSTERESIS)
+          && encodeMillis * SCALE_STEP_COST < encodeBudgetMillis) {
+        scaleShift--;
+      }
+    }
+  }
+
+  private boolean lowerQuality() {
+    if (quality <= minQuality) {
+      return false;
+    }
+    quality = Math.max(minQuality, quality - qualityStep);
+    return true;
+  }
+
+  /**
+   * @return the JPEG quality encoders should use for the next frame
+   */
+  public int getQuality() {
+    return quality;
+  }
+
+  /**
+   * @return how many times encoders should halve the frame before encoding it
+   */
+  public int getScaleShift() {
+    return scaleShift;
+  }
+
+  public double getTargetBytesPerSecond() {
+    return targetBytesPerSecond;
+  }
+
+  public double getTargetFramesPerSecond() {
+    return targetFramesPerSecond;
+  }
+
+  /**
+   * @return the byte rate measured over the last complete window
+   */
+  public synchronized double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * @return the frame rate measured over the last complete window
+   */
+  public synchronized double getFramesPerSecond() {
+    return framesPerSecond;
+  }
+
+  /**
+   * @return the mean encode time over the last complete window
+   */
+  public synchronized double getEncodeMillis() {
+    return encodeMillis;
+  }
+}
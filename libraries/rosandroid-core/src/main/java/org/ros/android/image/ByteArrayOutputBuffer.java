@@ -0,0 +1,104 @@
+package org.ros.android.image;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.LittleEndianHeapChannelBuffer;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable {@link OutputStream} over a reusable byte array.
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream} the backing array is exposed, so encoded frames can
+ * be handed to a message through {@link #toChannelBuffer()} without the {@code toByteArray()}
+ * copy. The array only grows, which means a buffer settles at the size of the largest frame it
+ * has seen and stops allocating.
+ */
+public class ByteArrayOutputBuffer extends OutputStream {
+
+  private byte[] buffer;
+  private int size;
+  private ChannelBuffer channelBuffer;
+
+  public ByteArrayOutputBuffer(int initialCapacity) {
+    buffer = new byte[initialCapacity];
+  }
+
+  /**
+   * Grows the backing array to hold at least {@code capacity} bytes. Written bytes are kept.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+      channelBuffer = null;
+    }
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(size + 1);
+    buffer[size++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(size + len);
+    System.arraycopy(b, off, buffer, size, len);
+    size += len;
+  }
+
+  public void reset() {
+    size = 0;
+  }
+
+  /**
+   * @return the backing array, valid up to {@link #size()}
+   */
+  public byte[] array() {
+    return buffer;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Sets the number of valid bytes after writing to {@link #array()} directly. Call
+   * {@link #ensureCapacity(int)} before writing.
+   */
+  public void setSize(int size) {
+    if (size < 0 || size > buffer.length) {
+      throw new IndexOutOfBoundsException("size: " + size + ", capacity: " + buffer.length);
+    }
+    this.size = size;
+  }
+
+  /**
+   * Replaces the backing array with {@code array}, of which the first {@code size} bytes are
+   * valid, without copying.
+   *
+   * @return the previous backing array, which the caller now owns
+   */
+  public byte[] swap(byte[] array, int size) {
+    if (size < 0 || size > array.length) {
+      throw new IndexOutOfBoundsException("size: " + size + ", capacity: " + array.length);
+    }
+    byte[] previous = buffer;
+    buffer = array;
+    this.size = size;
+    channelBuffer = null;
+    return previous;
+  }
+
+  /**
+   * Returns a little endian view of the written bytes for use as message data. The view is cached
+   * until the backing array grows, so it must not be used after the next {@link #reset()}.
+   */
+  public ChannelBuffer toChannelBuffer() {
+    if (channelBuffer == null) {
+      channelBuffer = new LittleEndianHeapChannelBuffer(buffer);
+    }
+    channelBuffer.setIndex(0, size);
+    return channelBuffer;
+  }
+}
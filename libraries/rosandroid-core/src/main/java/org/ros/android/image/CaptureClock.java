@@ -0,0 +1,54 @@
+package org.ros.android.image;
+
+import android.os.SystemClock;
+
+/**
+ * Converts frame timestamps in milliseconds of an undocumented clock to {@link System#nanoTime()}.
+ * <p>
+ * Camera libraries stamp frames with wall clock, uptime or elapsed realtime depending on the
+ * version and camera API. The clock whose current time is closest to the first timestamp is
+ * assumed to be the source and kept for later frames, so the age of a frame is the source clock's
+ * current time minus the timestamp. The choice is revisited if ages stop being plausible.
+ */
+public class CaptureClock {
+
+  private static final int WALL_CLOCK = 0;
+  private static final int ELAPSED_REALTIME = 1;
+  private static final int UPTIME = 2;
+  private static final int CLOCK_COUNT = 3;
+
+  private static final long MIN_PLAUSIBLE_AGE_MILLIS = -1000;
+  private static final long MAX_PLAUSIBLE_AGE_MILLIS = 10000;
+
+  private int clock = -1;
+
+  /**
+   * @return the {@link System#nanoTime()} at which the frame stamped {@code timestampMillis} was
+   *         captured
+   */
+  public synchronized long toNanoTime(long timestampMillis) {
+    long nowNanos = System.nanoTime();
+    long age = clock < 0 ? Long.MAX_VALUE : now(clock) - timestampMillis;
+    if (age < MIN_PLAUSIBLE_AGE_MILLIS || age > MAX_PLAUSIBLE_AGE_MILLIS) {
+      for (int candidate = 0; candidate < CLOCK_COUNT; candidate++) {
+        long candidateAge = now(candidate) - timestampMillis;
+        if (Math.abs(candidateAge) < Math.abs(age)) {
+          clock = candidate;
+          age = candidateAge;
+        }
+      }
+    }
+    return nowNanos - Math.max(0, age) * 1000000L;
+  }
+
+  private static long now(int clock) {
+    switch (clock) {
+      case WALL_CLOCK:
+        return System.currentTimeMillis();
+      case ELAPSED_REALTIME:
+        return SystemClock.elapsedRealtime();
+      default:
+        return SystemClock.uptimeMillis();
+    }
+  }
+}
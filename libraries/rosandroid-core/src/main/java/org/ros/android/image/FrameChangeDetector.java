@@ -0,0 +1,158 @@
+package org.ros.android.image;
+
+/**
+ * Suppresses frames that barely differ from the last frame let through, so a static scene does
+ * not cost a full encode and publish per frame.
+ * <p>
+ * Frames are compared by a signature of block averages over a subsampled Y plane, which is cheap
+ * enough to run on the capture thread and insensitive to sensor noise. A frame passes if the mean
+ * absolute difference of its signature exceeds the threshold, or if no frame has passed for the
+ * keyframe interval, so subscribers that join late still receive an image.
+ */
+public class FrameChangeDetector {
+
+  public static final int DEFAULT_COLUMNS = 32;
+  public static final int DEFAULT_ROWS = 24;
+  /** Luma samples read per block in each direction. */
+  private static final int SAMPLES_PER_BLOCK = 4;
+
+  private final int columns;
+  private final int rows;
+  private final int[] signature;
+  private final int[] reference;
+
+  private double threshold;
+  private long keyframeIntervalNanos;
+
+  private int signatureWidth;
+  private int signatureHeight;
+  private boolean hasReference;
+  private int referenceWidth;
+  private int referenceHeight;
+  private long lastPassedNanos;
+  private double lastDifference;
+  private long passedFrames;
+  private long suppressedFrames;
+
+  /**
+   * @param threshold
+   *          the mean absolute difference of block averages, in luma levels, above which a frame
+   *          counts as changed
+   * @param keyframeIntervalNanos
+   *          the longest time without a passed frame, or zero to never force one
+   */
+  public FrameChangeDetector(double threshold, long keyframeIntervalNanos) {
+    this(DEFAULT_COLUMNS, DEFAULT_ROWS, threshold, keyframeIntervalNanos);
+  }
+
+  public FrameChangeDetector(int columns, int rows, double threshold, long keyframeIntervalNanos) {
+    this.columns = columns;
+    this.rows = rows;
+    this.threshold = threshold;
+    this.keyframeIntervalNanos = keyframeIntervalNanos;
+    signature = new int[columns * rows];
+    reference = new int[columns * rows];
+  }
+
+  public synchronized void setThreshold(double threshold) {
+    this.threshold = threshold;
+  }
+
+  public synchronized void setKeyframeInterval(long keyframeIntervalNanos) {
+    this.keyframeIntervalNanos = keyframeIntervalNanos;
+  }
+
+  /**
+   * Decides whether {@code nv21} should be published. A passed frame becomes the reference for
+   * the following ones.
+   */
+  public synchronized boolean shouldPublish(byte[] nv21, int width, int height, long nowNanos) {
+    if (!isChanged(nv21, width, height, nowNanos)) {
+      return false;
+    }
+    accept(nowNanos);
+    return true;
+  }
+
+  /**
+   * Compares {@code nv21} to the reference without adopting it. If it changed, call
+   * {@link #accept(long)} once the frame is actually published, so a frame that is dropped later
+   * does not become the reference and suppress the change it brought.
+   */
+  public synchronized boolean isChanged(byte[] nv21, int width, int height, long nowNanos) {
+    computeSignature(nv21, width, height);
+    signatureWidth = width;
+    signatureHeight = height;
+    boolean changed = true;
+    if (hasReference && width == referenceWidth && height == referenceHeight) {
+      long sum = 0;
+      for (int i = 0; i < signature.length; i++) {
+        sum += Math.abs(signature[i] - reference[i]);
+      }
+      lastDifference = (double) sum / signature.length;
+      changed = lastDifference > threshold
+          || (keyframeIntervalNanos > 0 && nowNanos - lastPassedNanos >= keyframeIntervalNanos);
+    }
+    if (!changed) {
+      suppressedFrames++;
+    }
+    return changed;
+  }
+
+  /**
+   * Makes the frame last passed to {@link #isChanged} the reference.
+   */
+  public synchronized void accept(long nowNanos) {
+    System.arraycopy(signature, 0, reference, 0, signature.length);
+    hasReference = true;
+    referenceWidth = signatureWidth;
+    referenceHeight = signatureHeight;
+    lastPassedNanos = nowNanos;
+    passedFrames++;
+  }
+
+  /**
+   * Forgets the reference frame so the next frame passes.
+   */
+  public synchronized void reset() {
+    hasReference = false;
+  }
+
+  private void computeSignature(byte[] nv21, int width, int height) {
+    for (int row = 0; row < rows; row++) {
+      int top = row * height / rows;
+      int bottom = (row + 1) * height / rows;
+      int stepY = Math.max(1, (bottom - top) / SAMPLES_PER_BLOCK);
+      for (int column = 0; column < columns; column++) {
+        int left = column * width / columns;
+        int right = (column + 1) * width / columns;
+        int stepX = Math.max(1, (right - left) / SAMPLES_PER_BLOCK);
+        int sum = 0;
+        int count = 0;
+        for (int y = top; y < bottom; y += stepY) {
+          int line = y * width;
+          for (int x = left; x < right; x += stepX) {
+            sum += nv21[line + x] & 0xFF;
+            count++;
+          }
+        }
+        signature[row * columns + column] = count > 0 ? sum / count : 0;
+      }
+    }
+  }
+
+  /**
+   * @return the difference of the last compared frame to its reference, in luma levels
+   */
+  public synchronized double getLastDifference() {
+    return lastDifference;
+  }
+
+  public synchronized long getPassedFrames() {
+    return passedFrames;
+  }
+
+  public synchronized long getSuppressedFrames() {
+    return suppressedFrames;
+  }
+}
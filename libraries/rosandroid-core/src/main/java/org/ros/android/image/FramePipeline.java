@@ -0,0 +1,412 @@
+package org.ros.android.image;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decouples frame capture from encoding and publishing.
+ * <p>
+ * {@link #offer} copies a frame into a free slot of a bounded ring and returns immediately, so the
+ * camera callback never waits for an encoder. Encoder workers take captured slots in parallel and
+ * a single publisher thread hands encoded slots to the {@link Sink} in capture order. When every
+ * slot is in use, the {@link DropPolicy} decides whether the incoming frame or the oldest frame
+ * not yet picked up by an encoder is discarded.
+ * <p>
+ * Nothing in here depends on Android, so the pipeline can be driven by a synthetic frame source
+ * on a plain JVM.
+ */
+public class FramePipeline {
+
+  public enum DropPolicy {
+    /** Replace the oldest frame waiting for an encoder, favouring freshness. */
+    DROP_OLDEST,
+    /** Discard the incoming frame, favouring frames that are already queued. */
+    DROP_NEWEST
+  }
+
+  /**
+   * Encodes a captured slot, typically into a buffer set with {@link FrameSlot#setOutput}. Each
+   * worker thread owns its own instance.
+   */
+  public interface Encoder {
+    void encode(FrameSlot slot) throws Exception;
+
+    /**
+     * Frees the resources of the encoder. Called on its worker thread as the worker exits, so it
+     * never overlaps {@link #encode}, even if {@link FramePipeline#stop()} gave up waiting for the worker.
+     */
+    void release();
+  }
+
+  public interface EncoderFactory {
+    Encoder newEncoder();
+  }
+
+  /**
+   * Receives encoded slots on the publisher thread. The slot is recycled once this returns.
+   */
+  public interface Sink {
+    void publish(FrameSlot slot);
+  }
+
+  private static final long NOT_ENCODING = Long.MAX_VALUE;
+  private static final long JOIN_TIMEOUT_MILLIS = 1000;
+
+  private final EncoderFactory encoderFactory;
+  private final Sink sink;
+  private final DropPolicy dropPolicy;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition frameCaptured = lock.newCondition();
+  private final Condition frameEncoded = lock.newCondition();
+  private final ArrayDeque<FrameSlot> freeSlots;
+  private final ArrayDeque<FrameSlot> capturedSlots;
+  // Sorted by sequence so that frames finished out of order by parallel workers are published in
+  // capture order.
+  private final ArrayList<FrameSlot> encodedSlots;
+  private final long[] encodingSequences;
+  private final Thread[] encoderThreads;
+  private Thread publisherThread;
+  private boolean running;
+
+  private long nextSequence;
+  private long capturedFrames;
+  private long droppedFrames;
+  private long encodedFrames;
+  private long failedFrames;
+  private long publishedFrames;
+
+  public FramePipeline(int slots, int encoders, DropPolicy dropPolicy,
+      EncoderFactory encoderFactory, Sink sink) {
+    if (slots < 1 || encoders < 1) {
+      throw new IllegalArgumentException("slots and encoders must be positive");
+    }
+    this.encoderFactory = encoderFactory;
+    this.sink = sink;
+    this.dropPolicy = dropPolicy;
+    freeSlots = new ArrayDeque<FrameSlot>(slots);
+    capturedSlots = new ArrayDeque<FrameSlot>(slots);
+    encodedSlots = new ArrayList<FrameSlot>(slots);
+    for (int i = 0; i < slots; i++) {
+      freeSlots.add(new FrameSlot());
+    }
+    encodingSequences = new long[encoders];
+    Arrays.fill(encodingSequences, NOT_ENCODING);
+    encoderThreads = new Thread[encoders];
+  }
+
+  public void start() {
+    lock.lock();
+    try {
+      if (running) {
+        return;
+      }
+      running = true;
+      for (int i = 0; i < encoderThreads.length; i++) {
+        encoderThreads[i] = new Thread(new EncoderWorker(i, encoderFactory.newEncoder()),
+            "FramePipeline-encoder-" + i);
+        encoderThreads[i].start();
+      }
+      publisherThread = new Thread(new PublisherWorker(), "FramePipeline-publisher");
+      publisherThread.start();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void stop() {
+    lock.lock();
+    try {
+      if (!running) {
+        return;
+      }
+      running = false;
+    } finally {
+      lock.unlock();
+    }
+    for (Thread thread : encoderThreads) {
+      thread.interrupt();
+    }
+    publisherThread.interrupt();
+    try {
+      for (Thread thread : encoderThreads) {
+        thread.join(JOIN_TIMEOUT_MILLIS);
+      }
+      publisherThread.join(JOIN_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Copies a frame into the pipeline. Never blocks on encoding.
+   *
+   * @return {@code false} if the frame was dropped
+   */
+  public boolean offer(byte[] data, int length, int width, int height, long timestamp) {
+    FrameSlot slot;
+    long sequence;
+    lock.lock();
+    try {
+      if (!running) {
+        return false;
+      }
+      sequence = nextSequence++;
+      slot = freeSlots.pollFirst();
+      if (slot == null) {
+        droppedFrames++;
+        if (dropPolicy == DropPolicy.DROP_NEWEST || capturedSlots.isEmpty()) {
+          return false;
+        }
+        slot = capturedSlots.pollFirst();
+      }
+    } finally {
+      lock.unlock();
+    }
+    // The slot is owned by this thread until it is queued, so the copy happens unlocked.
+    slot.capture(data, length, width, height, timestamp, sequence);
+    lock.lock();
+    try {
+      capturedSlots.addLast(slot);
+      capturedFrames++;
+      frameCaptured.signal();
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Consumes a sequence number for a frame that is not offered, e.g. one suppressed by change
+   * detection, so it leaves a gap in the sequence like a dropped frame.
+   */
+  public void skip() {
+    lock.lock();
+    try {
+      nextSequence++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private final class EncoderWorker implements Runnable {
+
+    private final int index;
+    private final Encoder encoder;
+
+    private EncoderWorker(int index, Encoder encoder) {
+      this.index = index;
+      this.encoder = encoder;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          FrameSlot slot;
+          lock.lock();
+          try {
+            while (running && capturedSlots.isEmpty()) {
+              frameCaptured.await();
+            }
+            if (!running) {
+              return;
+            }
+            slot = capturedSlots.pollFirst();
+            encodingSequences[index] = slot.getSequence();
+          } finally {
+            lock.unlock();
+          }
+
+          boolean encoded;
+          try {
+            long start = System.nanoTime();
+            encoder.encode(slot);
+            slot.setEncodeTimes(start, System.nanoTime());
+            encoded = true;
+          } catch (Exception e) {
+            encoded = false;
+          }
+
+          lock.lock();
+          try {
+            encodingSequences[index] = NOT_ENCODING;
+            if (encoded) {
+              encodedFrames++;
+              insertEncoded(slot);
+            } else {
+              failedFrames++;
+              freeSlots.addLast(slot);
+            }
+            frameEncoded.signal();
+          } finally {
+            lock.unlock();
+          }
+        }
+      } catch (InterruptedException e) {
+        // Stopped.
+      } finally {
+        encoder.release();
+      }
+    }
+  }
+
+  private final class PublisherWorker implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          FrameSlot slot;
+          lock.lock();
+          try {
+            while (running && !isNextEncodedPublishable()) {
+              frameEncoded.await();
+            }
+            if (!running) {
+              return;
+            }
+            slot = encodedSlots.remove(0);
+          } finally {
+            lock.unlock();
+          }
+
+          boolean published;
+          try {
+            sink.publish(slot);
+            published = true;
+          } catch (RuntimeException e) {
+            published = false;
+          }
+
+          lock.lock();
+          try {
+            if (published) {
+              publishedFrames++;
+            } else {
+              failedFrames++;
+            }
+            freeSlots.addLast(slot);
+          } finally {
+            lock.unlock();
+          }
+        }
+      } catch (InterruptedException e) {
+        // Stopped.
+      }
+    }
+  }
+
+  private void insertEncoded(FrameSlot slot) {
+    int i = encodedSlots.size();
+    while (i > 0 && encodedSlots.get(i - 1).getSequence() > slot.getSequence()) {
+      i--;
+    }
+    encodedSlots.add(i, slot);
+  }
+
+  /**
+   * The oldest encoded slot may only be published once no worker is still encoding an older one.
+   */
+  private boolean isNextEncodedPublishable() {
+    if (encodedSlots.isEmpty()) {
+      return false;
+    }
+    long sequence = encodedSlots.get(0).getSequence();
+    for (long encoding : encodingSequences) {
+      if (encoding < sequence) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of frames waiting for an encoder
+   */
+  public int getCapturedQueueDepth() {
+    lock.lock();
+    try {
+      return capturedSlots.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of frames currently being encoded
+   */
+  public int getEncodingDepth() {
+    lock.lock();
+    try {
+      int depth = 0;
+      for (long encoding : encodingSequences) {
+        if (encoding != NOT_ENCODING) {
+          depth++;
+        }
+      }
+      return depth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of encoded frames waiting for the publisher
+   */
+  public int getEncodedQueueDepth() {
+    lock.lock();
+    try {
+      return encodedSlots.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getCapturedFrames() {
+    lock.lock();
+    try {
+      return capturedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getDroppedFrames() {
+    lock.lock();
+    try {
+      return droppedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getEncodedFrames() {
+    lock.lock();
+    try {
+      return encodedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getFailedFrames() {
+    lock.lock();
+    try {
+      return failedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getPublishedFrames() {
+    lock.lock();
+    try {
+      return publishedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
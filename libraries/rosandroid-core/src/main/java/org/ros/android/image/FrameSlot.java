@@ -0,0 +1,137 @@
+package org.ros.android.image;
+
+import java.util.Arrays;
+
+/**
+ * One entry of the {@link FramePipeline} ring. A slot owns a private copy of the captured frame
+ * so the camera can reuse its buffer as soon as the capture callback returns, and carries the
+ * encoded outputs from the encoder stage to the publisher stage.
+ */
+public class FrameSlot {
+
+  private byte[] data = new byte[0];
+  private int length;
+  private int width;
+  private int height;
+  private long timestamp;
+  private long sequence;
+  private long encodeStartNanos;
+  private long encodeEndNanos;
+  private ByteArrayOutputBuffer[] outputs = new ByteArrayOutputBuffer[1];
+
+  void capture(byte[] source, int length, int width, int height, long timestamp, long sequence) {
+    if (data.length < length) {
+      data = new byte[length];
+    }
+    System.arraycopy(source, 0, data, 0, length);
+    this.length = length;
+    this.width = width;
+    this.height = height;
+    this.timestamp = timestamp;
+    this.sequence = sequence;
+    encodeStartNanos = 0;
+    encodeEndNanos = 0;
+    Arrays.fill(outputs, null);
+  }
+
+  /**
+   * @return the captured frame, valid up to {@link #getLength()}
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return the capture time as passed to {@link FramePipeline#offer}, in the time base chosen by
+   *         the frame source
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return the capture sequence number, which increases by one for every offered frame including
+   *         dropped ones, and for every frame passed to {@link FramePipeline#skip()}
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the time the encoder stage spent on this frame
+   */
+  public long getEncodeNanos() {
+    return encodeEndNanos - encodeStartNanos;
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} at which an encoder picked up this frame
+   */
+  public long getEncodeStartNanos() {
+    return encodeStartNanos;
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} at which the encoder finished this frame
+   */
+  public long getEncodeEndNanos() {
+    return encodeEndNanos;
+  }
+
+  void setEncodeTimes(long encodeStartNanos, long encodeEndNanos) {
+    this.encodeStartNanos = encodeStartNanos;
+    this.encodeEndNanos = encodeEndNanos;
+  }
+
+  /**
+   * Hands the first {@code size} bytes of the captured frame to {@code output} without copying and
+   * takes over the output's previous array for the next capture. {@link #getData()} no longer
+   * holds the frame afterwards.
+   */
+  public void moveDataTo(ByteArrayOutputBuffer output, int size) {
+    data = output.swap(data, size);
+    setOutput(output);
+  }
+
+  /**
+   * @return the primary output
+   */
+  public ByteArrayOutputBuffer getOutput() {
+    return outputs[0];
+  }
+
+  public void setOutput(ByteArrayOutputBuffer output) {
+    outputs[0] = output;
+  }
+
+  /**
+   * @return the output for stream {@code index}, or {@code null} if the encoder produced none for
+   *         this frame
+   */
+  public ByteArrayOutputBuffer getOutput(int index) {
+    return index < outputs.length ? outputs[index] : null;
+  }
+
+  /**
+   * Sets the output for stream {@code index}, for encoders that produce several streams from one
+   * frame. Index 0 is the primary output.
+   */
+  public void setOutput(int index, ByteArrayOutputBuffer output) {
+    if (index >= outputs.length) {
+      outputs = Arrays.copyOf(outputs, index + 1);
+    }
+    outputs[index] = output;
+  }
+}
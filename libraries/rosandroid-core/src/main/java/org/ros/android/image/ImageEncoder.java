@@ -0,0 +1,83 @@
+package org.ros.android.image;
+
+import java.io.IOException;
+
+/**
+ * Turns NV21 frames into message payloads. Publishers depend only on this class, so the trade-off
+ * between CPU time and bandwidth is chosen at runtime through {@link ImageEncoders} instead of in
+ * code.
+ * <p>
+ * Every encoder records the time it spent and the bytes it produced, for the last frame and in
+ * total. Instances are not thread-safe; give every encoder thread its own. The statistics may be
+ * read from any thread.
+ */
+public abstract class ImageEncoder {
+
+  private volatile long lastEncodeNanos;
+  private volatile int lastSize;
+  private volatile long encodedFrames;
+  private volatile long totalEncodeNanos;
+  private volatile long totalBytes;
+
+  /**
+   * @return the sensor_msgs/CompressedImage format, or the sensor_msgs/Image encoding for
+   *         encoders that are not {@link #isCompressed()}
+   */
+  public abstract String getFormat();
+
+  /**
+   * @return {@code true} if the output belongs in a sensor_msgs/CompressedImage
+   */
+  public boolean isCompressed() {
+    return true;
+  }
+
+  /**
+   * Replaces the content of {@code out} with the encoded frame.
+   *
+   * @param quality
+   *          in [1, 100] for lossy encoders, ignored by the others
+   */
+  public final void encode(byte[] nv21, int width, int height, int quality,
+      ByteArrayOutputBuffer out) throws IOException {
+    long start = System.nanoTime();
+    out.reset();
+    encodeFrame(nv21, width, height, quality, out);
+    long nanos = System.nanoTime() - start;
+    lastEncodeNanos = nanos;
+    lastSize = out.size();
+    // Only the encoding thread writes, so the increments do not race.
+    encodedFrames++;
+    totalEncodeNanos += nanos;
+    totalBytes += out.size();
+  }
+
+  /**
+   * Frees native resources held by the encoder. It must not be used afterwards.
+   */
+  public void release() {
+  }
+
+  protected abstract void encodeFrame(byte[] nv21, int width, int height, int quality,
+      ByteArrayOutputBuffer out) throws IOException;
+
+  public long getLastEncodeNanos() {
+    return lastEncodeNanos;
+  }
+
+  public int getLastSize() {
+    return lastSize;
+  }
+
+  public long getEncodedFrames() {
+    return encodedFrames;
+  }
+
+  public long getTotalEncodeNanos() {
+    return totalEncodeNanos;
+  }
+
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+}
@@ -0,0 +1,74 @@
+package org.ros.android.image;
+
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+/**
+ * Creates {@link ImageEncoder}s from a setting that can change per deployment.
+ */
+public final class ImageEncoders {
+
+  public enum Type {
+    /** JPEG through the platform encoder. */
+    PLATFORM_JPEG,
+    /** JPEG through {@link StripedJpegEncoder}, spread over {@link Options#stripeCount} cores. */
+    JAVA_JPEG,
+    /** Lossless PNG at {@link Options#deflateLevel}. */
+    PNG,
+    /** Uncompressed {@link Options#rawEncoding} for sensor_msgs/Image. */
+    RAW,
+  }
+
+  /**
+   * Settings used by some of the types.
+   */
+  public static class Options {
+    public int deflateLevel = Deflater.BEST_SPEED;
+    public ExecutorService executor;
+    public int stripeCount = 1;
+    public String rawEncoding = RawImageEncoder.RGB8;
+  }
+
+  private ImageEncoders() {
+  }
+
+  /**
+   * @return the {@link ImageEncoder#getFormat()} of the encoders {@code type} creates, without
+   *         creating one
+   */
+  public static String getFormat(Type type, Options options) {
+    switch (type) {
+      case PLATFORM_JPEG:
+      case JAVA_JPEG:
+        return "jpeg";
+      case PNG:
+        return "png";
+      case RAW:
+        return options.rawEncoding;
+      default:
+        throw new IllegalArgumentException("Unknown encoder type: " + type);
+    }
+  }
+
+  public static ImageEncoder newEncoder(Type type) {
+    return newEncoder(type, new Options());
+  }
+
+  public static ImageEncoder newEncoder(Type type, Options options) {
+    switch (type) {
+      case PLATFORM_JPEG:
+        return new PlatformJpegImageEncoder();
+      case JAVA_JPEG:
+        if (options.executor == null || options.stripeCount < 2) {
+          return new JavaJpegImageEncoder();
+        }
+        return new JavaJpegImageEncoder(options.executor, options.stripeCount);
+      case PNG:
+        return new PngImageEncoder(options.deflateLevel);
+      case RAW:
+        return new RawImageEncoder(options.rawEncoding);
+      default:
+        throw new IllegalArgumentException("Unknown encoder type: " + type);
+    }
+  }
+}
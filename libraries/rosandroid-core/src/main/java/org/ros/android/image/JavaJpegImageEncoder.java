@@ -0,0 +1,34 @@
+package org.ros.android.image;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * JPEG through {@link StripedJpegEncoder}, which spreads one frame over several cores.
+ */
+public class JavaJpegImageEncoder extends ImageEncoder {
+
+  private final StripedJpegEncoder encoder;
+
+  /**
+   * Encodes on the calling thread only.
+   */
+  public JavaJpegImageEncoder() {
+    encoder = new StripedJpegEncoder();
+  }
+
+  public JavaJpegImageEncoder(ExecutorService executor, int stripeCount) {
+    encoder = new StripedJpegEncoder(executor, stripeCount);
+  }
+
+  @Override
+  public String getFormat() {
+    return "jpeg";
+  }
+
+  @Override
+  protected void encodeFrame(byte[] nv21, int width, int height, int quality,
+      ByteArrayOutputBuffer out) throws IOException {
+    encoder.encode(nv21, width, height, quality, out);
+  }
+}
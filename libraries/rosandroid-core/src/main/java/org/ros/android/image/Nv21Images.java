@@ -0,0 +1,97 @@
+package org.ros.android.image;
+
+/**
+ * Pixel kernels working directly on NV21 frames: a full resolution Y plane followed by an
+ * interleaved V/U plane at half resolution in both directions.
+ */
+public final class Nv21Images {
+
+  private Nv21Images() {
+  }
+
+  /**
+   * @return the number of bytes of an NV21 frame with even dimensions
+   */
+  public static int frameLength(int width, int height) {
+    return width * height * 3 / 2;
+  }
+
+  /**
+   * @return half of {@code size}, rounded down to an even number so the result is still a valid
+   *         NV21 dimension
+   */
+  public static int halve(int size) {
+    return (size >> 1) & ~1;
+  }
+
+  /**
+   * Downscales {@code src} by two in both directions with a 2x2 box filter. {@code dst} must hold
+   * {@code frameLength(halve(width), halve(height))} bytes.
+   */
+  public static void halve(byte[] src, int width, int height, byte[] dst) {
+    int dstWidth = halve(width);
+    int dstHeight = halve(height);
+
+    for (int y = 0; y < dstHeight; y++) {
+      int top = 2 * y * width;
+      int bottom = top + width;
+      int d = y * dstWidth;
+      for (int x = 0; x < dstWidth; x++, top += 2, bottom += 2) {
+        dst[d + x] = average(src[top], src[top + 1], src[bottom], src[bottom + 1]);
+      }
+    }
+
+    // Each output V/U pair covers a 2x2 block of input pairs. Chroma rows have the same stride as
+    // luma rows.
+    int srcChroma = width * height;
+    int dstChroma = dstWidth * dstHeight;
+    for (int y = 0; y < dstHeight / 2; y++) {
+      int top = srcChroma + 2 * y * width;
+      int bottom = top + width;
+      int d = dstChroma + y * dstWidth;
+      for (int x = 0; x < dstWidth / 2; x++, top += 4, bottom += 4, d += 2) {
+        dst[d] = average(src[top], src[top + 2], src[bottom], src[bottom + 2]);
+        dst[d + 1] = average(src[top + 1], src[top + 3], src[bottom + 1], src[bottom + 3]);
+      }
+    }
+  }
+
+  /**
+   * Converts {@code nv21} to packed 8 bit RGB with BT.601 video range coefficients in 10 bit fixed
+   * point. Each chroma sample is converted once and shared by two horizontally adjacent pixels.
+   * {@code rgb} must hold {@code 3 * width * height} bytes.
+   */
+  public static void toRgb8(byte[] nv21, int width, int height, byte[] rgb) {
+    int chroma = width * height;
+    for (int y = 0; y < height; y++) {
+      int luma = y * width;
+      int vu = chroma + (y >> 1) * width;
+      int out = luma * 3;
+      for (int x = 0; x < width; x += 2, vu += 2) {
+        int v = (nv21[vu] & 0xFF) - 128;
+        int u = (nv21[vu + 1] & 0xFF) - 128;
+        int redOffset = 1634 * v + 512;
+        int greenOffset = -833 * v - 400 * u + 512;
+        int blueOffset = 2066 * u + 512;
+
+        int c = Math.max(0, (nv21[luma + x] & 0xFF) - 16) * 1192;
+        rgb[out++] = clamp((c + redOffset) >> 10);
+        rgb[out++] = clamp((c + greenOffset) >> 10);
+        rgb[out++] = clamp((c + blueOffset) >> 10);
+
+        c = Math.max(0, (nv21[luma + x + 1] & 0xFF) - 16) * 1192;
+        rgb[out++] = clamp((c + redOffset) >> 10);
+        rgb[out++] = clamp((c + greenOffset) >> 10);
+        rgb[out++] = clamp((c + blueOffset) >> 10);
+      }
+    }
+  }
+
+  private static byte clamp(int value) {
+    return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+  }
+
+  private static byte average(byte a, byte b, byte c, byte d) {
+    return (byte) (((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2);
+  }
+}
@@ -0,0 +1,85 @@
+package org.ros.android.image;
+
+/**
+ * A resolution pyramid of an NV21 frame. Level 0 is the frame itself and every further level
+ * halves the previous one with a 2x2 box filter, so building level {@code n} costs little more
+ * than a third of a full frame pass no matter how many consumers use the levels.
+ * <p>
+ * Level buffers are reused across frames. Instances are not thread-safe; give every encoder
+ * thread its own.
+ */
+public class Nv21Pyramid {
+
+  private byte[][] levels = new byte[1][];
+  private int[] widths = new int[1];
+  private int[] heights = new int[1];
+  private int levelCount;
+
+  /**
+   * Builds levels 1 to {@code depth} of {@code src}, stopping early if a level would become empty.
+   *
+   * @return the number of available levels, including level 0
+   */
+  public int build(byte[] src, int width, int height, int depth) {
+    ensureLevels(depth + 1);
+    levels[0] = src;
+    widths[0] = width;
+    heights[0] = height;
+    levelCount = 1;
+    for (int level = 1; level <= depth; level++) {
+      int levelWidth = Nv21Images.halve(widths[level - 1]);
+      int levelHeight = Nv21Images.halve(heights[level - 1]);
+      if (levelWidth == 0 || levelHeight == 0) {
+        break;
+      }
+      int length = Nv21Images.frameLength(levelWidth, levelHeight);
+      if (levels[level] == null || levels[level].length < length) {
+        levels[level] = new byte[length];
+      }
+      Nv21Images.halve(levels[level - 1], widths[level - 1], heights[level - 1], levels[level]);
+      widths[level] = levelWidth;
+      heights[level] = levelHeight;
+      levelCount++;
+    }
+    return levelCount;
+  }
+
+  private void ensureLevels(int count) {
+    if (levels.length < count) {
+      byte[][] grownLevels = new byte[count][];
+      System.arraycopy(levels, 0, grownLevels, 0, levels.length);
+      levels = grownLevels;
+      widths = new int[count];
+      heights = new int[count];
+    }
+  }
+
+  /**
+   * @return the number of levels built by the last {@link #build} call, including level 0
+   */
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /**
+   * @return the level closest to {@code level} that was built by the last {@link #build} call
+   */
+  public int clampLevel(int level) {
+    return Math.max(0, Math.min(level, levelCount - 1));
+  }
+
+  /**
+   * @return the frame of {@code level}, valid until the next {@link #build} call
+   */
+  public byte[] getLevel(int level) {
+    return levels[level];
+  }
+
+  public int getWidth(int level) {
+    return widths[level];
+  }
+
+  public int getHeight(int level) {
+    return heights[level];
+  }
+}
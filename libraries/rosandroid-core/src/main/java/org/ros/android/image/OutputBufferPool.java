@@ -0,0 +1,47 @@
+package org.ros.android.image;
+
+/**
+ * A fixed ring of {@link ByteArrayOutputBuffer}s for encoded frames that are handed to messages
+ * without copying.
+ * <p>
+ * rosjava serializes published messages later, from an outgoing queue holding at most
+ * {@link #PUBLISHER_QUEUE_CAPACITY} messages. A buffer may therefore only be rewritten after that
+ * many newer messages have been published, so buffers are recycled in strict rotation from a ring
+ * that is larger than the queue.
+ */
+public class OutputBufferPool {
+
+  public static final int PUBLISHER_QUEUE_CAPACITY = 16;
+  public static final int DEFAULT_SIZE = PUBLISHER_QUEUE_CAPACITY + 2;
+
+  private final ByteArrayOutputBuffer[] buffers;
+  private int next;
+
+  public OutputBufferPool(int initialCapacity) {
+    this(DEFAULT_SIZE, initialCapacity);
+  }
+
+  public OutputBufferPool(int size, int initialCapacity) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("size must be positive: " + size);
+    }
+    buffers = new ByteArrayOutputBuffer[size];
+    for (int i = 0; i < size; i++) {
+      buffers[i] = new ByteArrayOutputBuffer(initialCapacity);
+    }
+  }
+
+  /**
+   * @return the least recently acquired buffer, reset and ready for writing
+   */
+  public synchronized ByteArrayOutputBuffer acquire() {
+    ByteArrayOutputBuffer buffer = buffers[next];
+    next = (next + 1) % buffers.length;
+    buffer.reset();
+    return buffer;
+  }
+
+  public int size() {
+    return buffers.length;
+  }
+}
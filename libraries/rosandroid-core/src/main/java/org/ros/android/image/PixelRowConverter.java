@@ -0,0 +1,130 @@
+package org.ros.android.image;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Locale;
+
+/**
+ * Converts rows of sensor_msgs/Image data to packed ARGB pixels, as taken by
+ * {@code Bitmap.setPixels}.
+ * <p>
+ * Heap buffers are read straight from their backing array. Other buffers are copied one row at a
+ * time into a reusable row buffer, so a frame costs one bulk read per row instead of one call per
+ * channel and pixel. Instances are not thread-safe.
+ */
+public class PixelRowConverter {
+
+  public enum Encoding {
+    RGB8(3),
+    BGR8(3),
+    RGBA8(4),
+    BGRA8(4),
+    MONO8(1),
+    /** Shown with its most significant byte. */
+    MONO16(2);
+
+    private final int bytesPerPixel;
+
+    Encoding(int bytesPerPixel) {
+      this.bytesPerPixel = bytesPerPixel;
+    }
+
+    public int getBytesPerPixel() {
+      return bytesPerPixel;
+    }
+
+    /**
+     * @return the encoding named by a sensor_msgs/Image encoding string such as "bgr8"
+     * @throws IllegalArgumentException
+     *           if the encoding is not supported
+     */
+    public static Encoding fromString(String encoding) {
+      try {
+        return valueOf(encoding.toUpperCase(Locale.US));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unsupported image encoding: " + encoding);
+      }
+    }
+  }
+
+  private byte[] row = new byte[0];
+
+  /**
+   * Converts {@code width} pixels starting at byte {@code index} of {@code data} into
+   * {@code argb}.
+   *
+   * @param bigEndian
+   *          the byte order of {@link Encoding#MONO16} samples
+   */
+  public void convertRow(ChannelBuffer data, int index, int width, Encoding encoding,
+      boolean bigEndian, int[] argb) {
+    int length = width * encoding.getBytesPerPixel();
+    byte[] source;
+    int offset;
+    if (data.hasArray()) {
+      source = data.array();
+      offset = data.arrayOffset() + index;
+    } else {
+      if (row.length < length) {
+        row = new byte[length];
+      }
+      data.getBytes(index, row, 0, length);
+      source = row;
+      offset = 0;
+    }
+    convertRow(source, offset, width, encoding, bigEndian, argb);
+  }
+
+  /**
+   * Converts {@code width} pixels starting at {@code offset} of {@code source} into {@code argb}.
+   */
+  public static void convertRow(byte[] source, int offset, int width, Encoding encoding,
+      boolean bigEndian, int[] argb) {
+    int i = offset;
+    switch (encoding) {
+      case RGB8:
+        for (int x = 0; x < width; x++, i += 3) {
+          argb[x] = 0xFF000000 | (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8
+              | (source[i + 2] & 0xFF);
+        }
+        break;
+      case BGR8:
+        for (int x = 0; x < width; x++, i += 3) {
+          argb[x] = 0xFF000000 | (source[i + 2] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8
+              | (source[i] & 0xFF);
+        }
+        break;
+      case RGBA8:
+        for (int x = 0; x < width; x++, i += 4) {
+          argb[x] = (source[i + 3] & 0xFF) << 24 | (source[i] & 0xFF) << 16
+              | (source[i + 1] & 0xFF) << 8 | (source[i + 2] & 0xFF);
+        }
+        break;
+      case BGRA8:
+        for (int x = 0; x < width; x++, i += 4) {
+          argb[x] = (source[i + 3] & 0xFF) << 24 | (source[i + 2] & 0xFF) << 16
+              | (source[i + 1] & 0xFF) << 8 | (source[i] & 0xFF);
+        }
+        break;
+      case MONO8:
+        for (int x = 0; x < width; x++, i++) {
+          argb[x] = gray(source[i]);
+        }
+        break;
+      case MONO16:
+        if (!bigEndian) {
+          i++;
+        }
+        for (int x = 0; x < width; x++, i += 2) {
+          argb[x] = gray(source[i]);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported image encoding: " + encoding);
+    }
+  }
+
+  private static int gray(byte value) {
+    return 0xFF000000 | (value & 0xFF) * 0x010101;
+  }
+}
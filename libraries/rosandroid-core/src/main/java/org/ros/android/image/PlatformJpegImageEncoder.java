@@ -0,0 +1,25 @@
+package org.ros.android.image;
+
+import java.io.IOException;
+
+/**
+ * JPEG through the platform's native {@link android.graphics.YuvImage} encoder. Usually the fastest
+ * option per core, but a single frame never uses more than one.
+ */
+public class PlatformJpegImageEncoder extends ImageEncoder {
+
+  private final YuvJpegEncoder encoder = new YuvJpegEncoder();
+
+  @Override
+  public String getFormat() {
+    return "jpeg";
+  }
+
+  @Override
+  protected void encodeFrame(byte[] nv21, int width, int height, int quality,
+      ByteArrayOutputBuffer out) throws IOException {
+    if (!encoder.encode(nv21, width, height, quality, out)) {
+      throw new IOException("YuvImage failed to encode jpeg.");
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package org.ros.android.image;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Lossless 8 bit RGB PNG. Rows are converted from NV21 and filtered with the Sub filter, which is
+ * cheap and suits the smooth gradients of camera images, then compressed with a {@link Deflater}
+ * of the given level. Lower levels trade bandwidth for CPU time.
+ */
+public class PngImageEncoder extends ImageEncoder {
+
+  private static final byte[] SIGNATURE = {
+      (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+  private static final int FILTER_SUB = 1;
+
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final byte[] chunkHeader = new byte[8];
+  private final byte[] deflateBuffer = new byte[16 * 1024];
+  private byte[] rgb = new byte[0];
+  private byte[] filtered = new byte[0];
+
+  /**
+   * @param level
+   *          the deflate level from {@link Deflater#BEST_SPEED} to
+   *          {@link Deflater#BEST_COMPRESSION}
+   */
+  public PngImageEncoder(int level) {
+    deflater = new Deflater(level);
+  }
+
+  @Override
+  public String getFormat() {
+    return "png";
+  }
+
+  @Override
+  protected void encodeFrame(byte[] nv21, int width, int height, int quality,
+      ByteArrayOutputBuffer out) throws IOException {
+    int stride = width * 3;
+    if (rgb.length < stride * height) {
+      rgb = new byte[stride * height];
+    }
+    // A wider frame can have a longer row but no more pixels.
+    if (filtered.length < stride + 1) {
+      filtered = new byte[stride + 1];
+    }
+    Nv21Images.toRgb8(nv21, width, height, rgb);
+
+    out.write(SIGNATURE, 0, SIGNATURE.length);
+
+    int start = beginChunk(out, "IHDR");
+    writeInt(out, width);
+    writeInt(out, height);
+    // 8 bit truecolor, deflate, adaptive filtering, no interlace.
+    out.write(8);
+    out.write(2);
+    out.write(0);
+    out.write(0);
+    out.write(0);
+    endChunk(out, start);
+
+    start = beginChunk(out, "IDAT");
+    deflater.reset();
+    for (int y = 0; y < height; y++) {
+      int row = y * stride;
+      filtered[0] = FILTER_SUB;
+      System.arraycopy(rgb, row, filtered, 1, 3);
+      for (int x = 3; x < stride; x++) {
+        filtered[x + 1] = (byte) (rgb[row + x] - rgb[row + x - 3]);
+      }
+      deflater.setInput(filtered, 0, stride + 1);
+      while (!deflater.needsInput()) {
+        drain(out);
+      }
+    }
+    deflater.finish();
+    while (!deflater.finished()) {
+      drain(out);
+    }
+    endChunk(out, start);
+
+    start = beginChunk(out, "IEND");
+    endChunk(out, start);
+  }
+
+  @Override
+  public void release() {
+    deflater.end();
+  }
+
+  private void drain(ByteArrayOutputBuffer out) {
+    int length = deflater.deflate(deflateBuffer);
+    out.write(deflateBuffer, 0, length);
+  }
+
+  /**
+   * Writes a chunk header with a placeholder length.
+   *
+   * @return the offset of the chunk type, where the CRC starts
+   */
+  private int beginChunk(ByteArrayOutputBuffer out, String type) {
+    for (int i = 0; i < 4; i++) {
+      chunkHeader[4 + i] = (byte) type.charAt(i);
+    }
+    out.write(chunkHeader, 0, 8);
+    return out.size() - 4;
+  }
+
+  private void endChunk(ByteArrayOutputBuffer out, int start) {
+    byte[] array = out.array();
+    int length = out.size() - start - 4;
+    array[start - 4] = (byte) (length >> 24);
+    array[start - 3] = (byte) (length >> 16);
+    array[start - 2] = (byte) (length >> 8);
+    array[start - 1] = (byte) length;
+    crc.reset();
+    crc.update(array, start, out.size() - start);
+    writeInt(out, (int) crc.getValue());
+  }
+
+  private static void writeInt(ByteArrayOutputBuffer out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
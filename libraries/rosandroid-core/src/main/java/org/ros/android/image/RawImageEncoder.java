@@ -0,0 +1,59 @@
+package org.ros.android.image;
+
+import java.io.IOException;
+
+/**
+ * Uncompressed output for sensor_msgs/Image. Costs almost no CPU but the most bandwidth.
+ */
+public class RawImageEncoder extends ImageEncoder {
+
+  public static final String MONO8 = "mono8";
+  public static final String NV21 = "nv21";
+  public static final String RGB8 = "rgb8";
+
+  private final String encoding;
+
+  /**
+   * @param encoding
+   *          one of {@link #MONO8}, {@link #NV21} and {@link #RGB8}
+   */
+  public RawImageEncoder(String encoding) {
+    if (!MONO8.equals(encoding) && !NV21.equals(encoding) && !RGB8.equals(encoding)) {
+      throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+    }
+    this.encoding = encoding;
+  }
+
+  @Override
+  public String getFormat() {
+    return encoding;
+  }
+
+  @Override
+  public boolean isCompressed() {
+    return false;
+  }
+
+  /**
+   * @return the bytes per pixel of the output, for the step of the message
+   */
+  public int getBytesPerPixel() {
+    return RGB8.equals(encoding) ? 3 : 1;
+  }
+
+  @Override
+  protected void encodeFrame(byte[] nv21, int width, int height, int quality,
+      ByteArrayOutputBuffer out) throws IOException {
+    int size;
+    if (RGB8.equals(encoding)) {
+      size = width * height * 3;
+      out.ensureCapacity(size);
+      Nv21Images.toRgb8(nv21, width, height, out.array());
+    } else {
+      size = MONO8.equals(encoding) ? width * height : Nv21Images.frameLength(width, height);
+      out.ensureCapacity(size);
+      System.arraycopy(nv21, 0, out.array(), 0, size);
+    }
+    out.setSize(size);
+  }
+}
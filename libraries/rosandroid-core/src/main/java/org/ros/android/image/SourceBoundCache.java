@@ -0,0 +1,55 @@
+package org.ros.android.image;
+
+import java.util.Arrays;
+
+/**
+ * Caches objects that are bound to one source array, such as the {@code YuvImage} wrapping a
+ * preview buffer, for the few arrays a camera rotates through. Sources are matched by
+ * identity, and the cache is emptied when the frame size changes. Instances are not thread-safe.
+ */
+public class SourceBoundCache<T> {
+
+  public interface Factory<T> {
+    T create(byte[] source, int width, int height);
+  }
+
+  private final Factory<T> factory;
+  private final byte[][] sources;
+  private final Object[] values;
+  private int nextEviction;
+  private int width;
+  private int height;
+
+  public SourceBoundCache(int capacity, Factory<T> factory) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.factory = factory;
+    sources = new byte[capacity][];
+    values = new Object[capacity];
+  }
+
+  /**
+   * @return the object bound to {@code source}, created if {@code source} is not among the most
+   *         recently seen arrays of this size
+   */
+  @SuppressWarnings("unchecked")
+  public T get(byte[] source, int width, int height) {
+    if (width != this.width || height != this.height) {
+      Arrays.fill(sources, null);
+      Arrays.fill(values, null);
+      this.width = width;
+      this.height = height;
+    }
+    for (int i = 0; i < sources.length; i++) {
+      if (sources[i] == source) {
+        return (T) values[i];
+      }
+    }
+    T value = factory.create(source, width, height);
+    sources[nextEviction] = source;
+    values[nextEviction] = value;
+    nextEviction = (nextEviction + 1) % sources.length;
+    return value;
+  }
+}
@@ -0,0 +1,453 @@
+package org.ros.android.image;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A pure Java baseline JPEG encoder for NV21 frames that spreads a single frame over several
+ * threads.
+ * <p>
+ * The frame is split into horizontal stripes of whole MCU rows. Each stripe restarts entropy
+ * coding, so the stripes are encoded independently on the given executor and concatenated with
+ * RSTn markers in between. The restart interval is declared in a DRI segment, which makes the
+ * result a single standard 4:2:0 JFIF image that any decoder reads.
+ * <p>
+ * Stripe buffers are reused across frames. Instances are not thread-safe.
+ */
+public class StripedJpegEncoder {
+
+  private static final int MCU_SIZE = 16;
+  /** Largest restart interval a DRI segment can declare, in MCUs. */
+  private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+
+  private static final float[] AAN_SCALE = {
+      1.0f, 1.387039845f, 1.306562965f, 1.175875602f,
+      1.0f, 0.785694958f, 0.541196100f, 0.275899379f,
+  };
+
+  /** SOI and a JFIF APP0 segment with a 1:1 pixel aspect ratio. */
+  private static final byte[] JFIF_HEADER = {
+      (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0,
+      0, 1, 0, 1, 0, 0};
+  /** Component id, sampling factors and quantization table of each SOF0 component. */
+  private static final byte[] FRAME_COMPONENTS = {1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1};
+  /**
+   * Component id and DC/AC tables of each SOS component, then the full spectral range without
+   * approximation.
+   */
+  private static final byte[] SCAN_COMPONENTS = {3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0};
+
+  private static final int[] LUMA_DC_CODES =
+      JpegTables.buildHuffmanCodes(JpegTables.LUMA_DC_BITS, JpegTables.LUMA_DC_VALUES);
+  private static final int[] LUMA_AC_CODES =
+      JpegTables.buildHuffmanCodes(JpegTables.LUMA_AC_BITS, JpegTables.LUMA_AC_VALUES);
+  private static final int[] CHROMA_DC_CODES =
+      JpegTables.buildHuffmanCodes(JpegTables.CHROMA_DC_BITS, JpegTables.CHROMA_DC_VALUES);
+  private static final int[] CHROMA_AC_CODES =
+      JpegTables.buildHuffmanCodes(JpegTables.CHROMA_AC_BITS, JpegTables.CHROMA_AC_VALUES);
+
+  private final ExecutorService executor;
+  private final int stripeCount;
+  private Stripe[] stripes = new Stripe[0];
+
+  private int quality = -1;
+  private int[] lumaQuantization;
+  private int[] chromaQuantization;
+  private final float[] lumaDivisors = new float[64];
+  private final float[] chromaDivisors = new float[64];
+
+  /**
+   * Creates an encoder that encodes every frame on the calling thread.
+   */
+  public StripedJpegEncoder() {
+    this(null, 1);
+  }
+
+  /**
+   * @param executor
+   *          runs all stripes but the first, which is encoded on the calling thread
+   * @param stripeCount
+   *          the number of stripes per frame, typically the number of cores
+   */
+  public StripedJpegEncoder(ExecutorService executor, int stripeCount) {
+    if (stripeCount < 1) {
+      throw new IllegalArgumentException("stripeCount: " + stripeCount);
+    }
+    if (executor == null && stripeCount > 1) {
+      throw new IllegalArgumentException("Encoding more than one stripe needs an executor.");
+    }
+    this.executor = executor;
+    this.stripeCount = stripeCount;
+  }
+
+  /**
+   * Writes {@code nv21} as a JPEG of the given {@code quality} in [1, 100] to {@code out}.
+   */
+  public void encode(byte[] nv21, int width, int height, int quality, OutputStream out)
+      throws IOException {
+    setQuality(quality);
+    int mcuColumns = (width + MCU_SIZE - 1) / MCU_SIZE;
+    int mcuRows = (height + MCU_SIZE - 1) / MCU_SIZE;
+    int rowsPerStripe = (mcuRows + stripeCount - 1) / stripeCount;
+    rowsPerStripe = Math.max(1, Math.min(rowsPerStripe, MAX_RESTART_INTERVAL / mcuColumns));
+    int count = (mcuRows + rowsPerStripe - 1) / rowsPerStripe;
+    ensureStripes(count);
+
+    for (int i = 0; i < count; i++) {
+      stripes[i].set(nv21, width, height, mcuColumns, i * rowsPerStripe,
+          Math.min(mcuRows, (i + 1) * rowsPerStripe));
+    }
+    runStripes(count);
+
+    writeHeaders(out, width, height, count > 1 ? mcuColumns * rowsPerStripe : 0);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        out.write(0xFF);
+        out.write(0xD0 + ((i - 1) & 7));
+      }
+      out.write(stripes[i].output.array(), 0, stripes[i].output.size());
+    }
+    out.write(0xFF);
+    out.write(0xD9);
+  }
+
+  private void runStripes(int count) throws IOException {
+    if (count == 1) {
+      stripes[0].call();
+      return;
+    }
+    Future<?>[] futures = new Future<?>[count];
+    for (int i = 1; i < count; i++) {
+      futures[i] = executor.submit(stripes[i]);
+    }
+    Throwable failure = null;
+    try {
+      stripes[0].call();
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+    // Waits for every stripe even after a failure, so no task still uses the stripe buffers when
+    // the next frame starts.
+    boolean interrupted = false;
+    for (int i = 1; i < count; i++) {
+      while (true) {
+        try {
+          futures[i].get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw new IOException("Encoding a stripe failed.", failure);
+    }
+  }
+
+  private void ensureStripes(int count) {
+    if (stripes.length < count) {
+      Stripe[] grownStripes = new Stripe[count];
+      System.arraycopy(stripes, 0, grownStripes, 0, stripes.length);
+      for (int i = stripes.length; i < count; i++) {
+        grownStripes[i] = new Stripe(this);
+      }
+      stripes = grownStripes;
+    }
+  }
+
+  private void setQuality(int quality) {
+    if (quality == this.quality) {
+      return;
+    }
+    this.quality = quality;
+    lumaQuantization = JpegTables.scaleQuantization(JpegTables.LUMA_QUANTIZATION, quality);
+    chromaQuantization = JpegTables.scaleQuantization(JpegTables.CHROMA_QUANTIZATION, quality);
+    // Folds the scaling of the AAN DCT into the quantization step.
+    for (int row = 0; row < 8; row++) {
+      for (int column = 0; column < 8; column++) {
+        int i = row * 8 + column;
+        float scale = AAN_SCALE[row] * AAN_SCALE[column] * 8;
+        lumaDivisors[i] = 1 / (lumaQuantization[i] * scale);
+        chromaDivisors[i] = 1 / (chromaQuantization[i] * scale);
+      }
+    }
+  }
+
+  private void writeHeaders(OutputStream out, int width, int height, int restartInterval)
+      throws IOException {
+    out.write(JFIF_HEADER);
+
+    writeMarker(out, 0xDB, 2 + 2 * 65);
+    out.write(0);
+    writeZigzag(out, lumaQuantization);
+    out.write(1);
+    writeZigzag(out, chromaQuantization);
+
+    writeMarker(out, 0xC0, 17);
+    out.write(8);
+    writeShort(out, height);
+    writeShort(out, width);
+    out.write(3);
+    out.write(FRAME_COMPONENTS);
+
+    int huffmanLength = 2 + 4 * 17 + JpegTables.LUMA_DC_VALUES.length
+        + JpegTables.LUMA_AC_VALUES.length + JpegTables.CHROMA_DC_VALUES.length
+        + JpegTables.CHROMA_AC_VALUES.length;
+    writeMarker(out, 0xC4, huffmanLength);
+    writeHuffmanTable(out, 0x00, JpegTables.LUMA_DC_BITS, JpegTables.LUMA_DC_VALUES);
+    writeHuffmanTable(out, 0x10, JpegTables.LUMA_AC_BITS, JpegTables.LUMA_AC_VALUES);
+    writeHuffmanTable(out, 0x01, JpegTables.CHROMA_DC_BITS, JpegTables.CHROMA_DC_VALUES);
+    writeHuffmanTable(out, 0x11, JpegTables.CHROMA_AC_BITS, JpegTables.CHROMA_AC_VALUES);
+
+    if (restartInterval > 0) {
+      writeMarker(out, 0xDD, 4);
+      writeShort(out, restartInterval);
+    }
+
+    writeMarker(out, 0xDA, 12);
+    out.write(SCAN_COMPONENTS);
+  }
+
+  private static void writeMarker(OutputStream out, int marker, int length) throws IOException {
+    out.write(0xFF);
+    out.write(marker);
+    writeShort(out, length);
+  }
+
+  private static void writeShort(OutputStream out, int value) throws IOException {
+    out.write(value >> 8);
+    out.write(value);
+  }
+
+  private static void writeZigzag(OutputStream out, int[] table) throws IOException {
+    for (int i = 0; i < 64; i++) {
+      out.write(table[JpegTables.ZIGZAG[i]]);
+    }
+  }
+
+  private static void writeHuffmanTable(OutputStream out, int tableClassAndId, int[] bits,
+      int[] values) throws IOException {
+    out.write(tableClassAndId);
+    for (int count : bits) {
+      out.write(count);
+    }
+    for (int value : values) {
+      out.write(value);
+    }
+  }
+
+  /**
+   * Encodes a range of MCU rows into its own entropy coded segment.
+   */
+  private static final class Stripe implements Callable<Void> {
+
+    private final StripedJpegEncoder encoder;
+    private final ByteArrayOutputBuffer output = new ByteArrayOutputBuffer(16 * 1024);
+    private final float[] block = new float[64];
+
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int mcuColumns;
+    private int firstMcuRow;
+    private int endMcuRow;
+
+    private int bitBuffer;
+    private int bitCount;
+    private int lumaDc;
+    private int blueDc;
+    private int redDc;
+
+    private Stripe(StripedJpegEncoder encoder) {
+      this.encoder = encoder;
+    }
+
+    private void set(byte[] nv21, int width, int height, int mcuColumns, int firstMcuRow,
+        int endMcuRow) {
+      this.nv21 = nv21;
+      this.width = width;
+      this.height = height;
+      this.mcuColumns = mcuColumns;
+      this.firstMcuRow = firstMcuRow;
+      this.endMcuRow = endMcuRow;
+    }
+
+    @Override
+    public Void call() {
+      output.reset();
+      bitBuffer = 0;
+      bitCount = 0;
+      lumaDc = 0;
+      blueDc = 0;
+      redDc = 0;
+      float[] lumaDivisors = encoder.lumaDivisors;
+      float[] chromaDivisors = encoder.chromaDivisors;
+      for (int mcuRow = firstMcuRow; mcuRow < endMcuRow; mcuRow++) {
+        int y = mcuRow * MCU_SIZE;
+        for (int mcuColumn = 0; mcuColumn < mcuColumns; mcuColumn++) {
+          int x = mcuColumn * MCU_SIZE;
+          lumaDc = encodeLumaBlock(x, y, lumaDc, lumaDivisors);
+          lumaDc = encodeLumaBlock(x + 8, y, lumaDc, lumaDivisors);
+          lumaDc = encodeLumaBlock(x, y + 8, lumaDc, lumaDivisors);
+          lumaDc = encodeLumaBlock(x + 8, y + 8, lumaDc, lumaDivisors);
+          // NV21 stores V before U.
+          blueDc = encodeChromaBlock(x >> 1, y >> 1, 1, blueDc, chromaDivisors);
+          redDc = encodeChromaBlock(x >> 1, y >> 1, 0, redDc, chromaDivisors);
+        }
+      }
+      // Pads the last byte with ones as the specification requires.
+      if (bitCount > 0) {
+        writeBits(0x7F, 7);
+      }
+      return null;
+    }
+
+    private int encodeLumaBlock(int left, int top, int previousDc, float[] divisors) {
+      for (int row = 0; row < 8; row++) {
+        int line = Math.min(top + row, height - 1) * width;
+        for (int column = 0; column < 8; column++) {
+          int x = Math.min(left + column, width - 1);
+          block[row * 8 + column] = (nv21[line + x] & 0xFF) - 128;
+        }
+      }
+      return encodeBlock(previousDc, divisors, LUMA_DC_CODES, LUMA_AC_CODES);
+    }
+
+    private int encodeChromaBlock(int left, int top, int offset, int previousDc, float[] divisors) {
+      int chromaWidth = width >> 1;
+      int chromaHeight = height >> 1;
+      int chroma = width * height;
+      for (int row = 0; row < 8; row++) {
+        int line = chroma + Math.min(top + row, chromaHeight - 1) * width;
+        for (int column = 0; column < 8; column++) {
+          int x = Math.min(left + column, chromaWidth - 1);
+          block[row * 8 + column] = (nv21[line + 2 * x + offset] & 0xFF) - 128;
+        }
+      }
+      return encodeBlock(previousDc, divisors, CHROMA_DC_CODES, CHROMA_AC_CODES);
+    }
+
+    /**
+     * Transforms, quantizes and entropy codes {@link #block}.
+     *
+     * @return the quantized DC coefficient, the predictor of the next block of the component
+     */
+    private int encodeBlock(int previousDc, float[] divisors, int[] dcCodes, int[] acCodes) {
+      forwardDct(block);
+      int dc = Math.round(block[0] * divisors[0]);
+      writeCoefficient(dc - previousDc, 0, dcCodes);
+
+      int run = 0;
+      for (int i = 1; i < 64; i++) {
+        int index = JpegTables.ZIGZAG[i];
+        int coefficient = Math.round(block[index] * divisors[index]);
+        if (coefficient == 0) {
+          run++;
+          continue;
+        }
+        while (run > 15) {
+          writeCode(acCodes[0xF0]);
+          run -= 16;
+        }
+        writeCoefficient(coefficient, run, acCodes);
+        run = 0;
+      }
+      if (run > 0) {
+        writeCode(acCodes[0x00]);
+      }
+      return dc;
+    }
+
+    private void writeCoefficient(int value, int run, int[] codes) {
+      int magnitude = value < 0 ? -value : value;
+      int size = 32 - Integer.numberOfLeadingZeros(magnitude);
+      writeCode(codes[(run << 4) | size]);
+      if (size > 0) {
+        // Negative values are sent as their one's complement.
+        writeBits(value < 0 ? value - 1 : value, size);
+      }
+    }
+
+    private void writeCode(int code) {
+      writeBits(code & 0xFFFF, code >>> 16);
+    }
+
+    private void writeBits(int bits, int count) {
+      bitBuffer = (bitBuffer << count) | (bits & ((1 << count) - 1));
+      bitCount += count;
+      while (bitCount >= 8) {
+        bitCount -= 8;
+        int b = (bitBuffer >> bitCount) & 0xFF;
+        output.write(b);
+        if (b == 0xFF) {
+          output.write(0);
+        }
+      }
+    }
+
+    /**
+     * The floating point AAN forward DCT of libjpeg's jfdctflt.c. The output is scaled by the
+     * factors folded into the quantization divisors.
+     */
+    private static void forwardDct(float[] data) {
+      for (int offset = 0; offset < 64; offset += 8) {
+        dct8(data, offset, 1);
+      }
+      for (int offset = 0; offset < 8; offset++) {
+        dct8(data, offset, 8);
+      }
+    }
+
+    private static void dct8(float[] d, int o, int s) {
+      float tmp0 = d[o] + d[o + 7 * s];
+      float tmp7 = d[o] - d[o + 7 * s];
+      float tmp1 = d[o + s] + d[o + 6 * s];
+      float tmp6 = d[o + s] - d[o + 6 * s];
+      float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+      float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+      float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+      float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+      float tmp10 = tmp0 + tmp3;
+      float tmp13 = tmp0 - tmp3;
+      float tmp11 = tmp1 + tmp2;
+      float tmp12 = tmp1 - tmp2;
+
+      d[o] = tmp10 + tmp11;
+      d[o + 4 * s] = tmp10 - tmp11;
+
+      float z1 = (tmp12 + tmp13) * 0.707106781f;
+      d[o + 2 * s] = tmp13 + z1;
+      d[o + 6 * s] = tmp13 - z1;
+
+      tmp10 = tmp4 + tmp5;
+      tmp11 = tmp5 + tmp6;
+      tmp12 = tmp6 + tmp7;
+
+      float z5 = (tmp10 - tmp12) * 0.382683433f;
+      float z2 = 0.541196100f * tmp10 + z5;
+      float z4 = 1.306562965f * tmp12 + z5;
+      float z3 = tmp11 * 0.707106781f;
+
+      float z11 = tmp7 + z3;
+      float z13 = tmp7 - z3;
+
+      d[o + 5 * s] = z13 + z2;
+      d[o + 3 * s] = z13 - z2;
+      d[o + s] = z11 + z4;
+      d[o + 7 * s] = z11 - z4;
+    }
+  }
+}
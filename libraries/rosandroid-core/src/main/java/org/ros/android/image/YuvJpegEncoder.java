@@ -0,0 +1,39 @@
+package org.ros.android.image;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.OutputStream;
+
+/**
+ * Compresses NV21 frames to JPEG with the platform {@link YuvImage} encoder.
+ * <p>
+ * A {@link YuvImage} is bound to its source array, and cameras rotate through a small set of
+ * preview buffers. The wrappers for the most recently seen arrays are kept in a
+ * {@link SourceBoundCache}, and the crop {@link Rect} is only replaced when the frame size changes.
+ * Instances are not thread-safe.
+ */
+public class YuvJpegEncoder {
+
+  private static final int CACHE_SIZE = 4;
+
+  private final SourceBoundCache<YuvImage> images =
+      new SourceBoundCache<YuvImage>(CACHE_SIZE, new SourceBoundCache.Factory<YuvImage>() {
+        @Override
+        public YuvImage create(byte[] source, int width, int height) {
+          return new YuvImage(source, ImageFormat.NV21, width, height, null);
+        }
+      });
+  private Rect rect;
+
+  /**
+   * @return {@code true} if the frame was written to {@code out}
+   */
+  public boolean encode(byte[] nv21, int width, int height, int quality, OutputStream out) {
+    if (rect == null || rect.width() != width || rect.height() != height) {
+      rect = new Rect(0, 0, width, height);
+    }
+    return images.get(nv21, width, height).compressToJpeg(rect, quality, out);
+  }
+}
@@ -0,0 +1,238 @@
+package org.ros.android.math;
+
+/**
+ * Quaternion, Euler angle, rotation matrix and axis-angle operations on primitive arrays.
+ * <p>
+ * Quaternions are {@code double[4]} in (w, x, y, z) order, vectors {@code double[3]} and rotation
+ * matrices {@code double[9]} in row-major order. Euler angles are (roll, pitch, yaw) in radians,
+ * applied about the fixed x, y and z axes in that order, as in ROS. Results are written to
+ * arrays owned by the caller, which may be the inputs themselves, so no operation allocates.
+ */
+public class Quaternions {
+
+  private Quaternions() {
+  }
+
+  public static void setIdentity(double[] out) {
+    out[0] = 1;
+    out[1] = 0;
+    out[2] = 0;
+    out[3] = 0;
+  }
+
+  public static void set(double w, double x, double y, double z, double[] out) {
+    out[0] = w;
+    out[1] = x;
+    out[2] = y;
+    out[3] = z;
+  }
+
+  public static double norm(double[] q) {
+    return Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+  }
+
+  /**
+   * Scales {@code q} to unit length. The zero quaternion becomes the identity.
+   */
+  public static void normalize(double[] q, double[] out) {
+    double norm = norm(q);
+    if (norm == 0) {
+      setIdentity(out);
+      return;
+    }
+    double scale = 1 / norm;
+    out[0] = q[0] * scale;
+    out[1] = q[1] * scale;
+    out[2] = q[2] * scale;
+    out[3] = q[3] * scale;
+  }
+
+  public static void conjugate(double[] q, double[] out) {
+    out[0] = q[0];
+    out[1] = -q[1];
+    out[2] = -q[2];
+    out[3] = -q[3];
+  }
+
+  /**
+   * Computes the Hamilton product {@code a * b}, i.e. the rotation {@code b} followed by
+   * {@code a}.
+   */
+  public static void multiply(double[] a, double[] b, double[] out) {
+    double w = a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3];
+    double x = a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2];
+    double y = a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1];
+    double z = a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0];
+    set(w, x, y, z, out);
+  }
+
+  /**
+   * Rotates vector {@code v} by unit quaternion {@code q}.
+   */
+  public static void rotate(double[] q, double[] v, double[] out) {
+    double w = q[0];
+    double x = q[1];
+    double y = q[2];
+    double z = q[3];
+    // v + 2w (u x v) + 2 u x (u x v), with u the vector part of q.
+    double tx = 2 * (y * v[2] - z * v[1]);
+    double ty = 2 * (z * v[0] - x * v[2]);
+    double tz = 2 * (x * v[1] - y * v[0]);
+    double vx = v[0] + w * tx + y * tz - z * ty;
+    double vy = v[1] + w * ty + z * tx - x * tz;
+    double vz = v[2] + w * tz + x * ty - y * tx;
+    out[0] = vx;
+    out[1] = vy;
+    out[2] = vz;
+  }
+
+  /**
+   * Interpolates linearly between {@code a} and {@code b}, the short way around, and normalizes.
+   * Close to spherical interpolation for nearby orientations, at a fraction of the cost.
+   */
+  public static void nlerp(double[] a, double[] b, double fraction, double[] out) {
+    double dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    double sign = dot < 0 ? -1 : 1;
+    double remaining = 1 - fraction;
+    out[0] = remaining * a[0] + sign * fraction * b[0];
+    out[1] = remaining * a[1] + sign * fraction * b[1];
+    out[2] = remaining * a[2] + sign * fraction * b[2];
+    out[3] = remaining * a[3] + sign * fraction * b[3];
+    normalize(out, out);
+  }
+
+  public static void fromEuler(double roll, double pitch, double yaw, double[] out) {
+    double cr = Math.cos(roll * 0.5);
+    double sr = Math.sin(roll * 0.5);
+    double cp = Math.cos(pitch * 0.5);
+    double sp = Math.sin(pitch * 0.5);
+    double cy = Math.cos(yaw * 0.5);
+    double sy = Math.sin(yaw * 0.5);
+    out[0] = cr * cp * cy + sr * sp * sy;
+    out[1] = sr * cp * cy - cr * sp * sy;
+    out[2] = cr * sp * cy + sr * cp * sy;
+    out[3] = cr * cp * sy - sr * sp * cy;
+  }
+
+  /**
+   * Writes the roll, pitch and yaw of unit quaternion {@code q} to {@code out}. Pitch is clamped to
+   * [-pi/2, pi/2].
+   */
+  public static void toEuler(double[] q, double[] out) {
+    double w = q[0];
+    double x = q[1];
+    double y = q[2];
+    double z = q[3];
+    double sinPitch = 2 * (w * y - z * x);
+    out[0] = Math.atan2(2 * (w * x + y * z), 1 - 2 * (x * x + y * y));
+    out[1] = Math.asin(Math.max(-1, Math.min(1, sinPitch)));
+    out[2] = Math.atan2(2 * (w * z + x * y), 1 - 2 * (y * y + z * z));
+  }
+
+  /**
+   * @param axisX
+   *          the x component of the rotation axis, which need not be unit length, and so on
+   */
+  public static void fromAxisAngle(double axisX, double axisY, double axisZ, double angle,
+      double[] out) {
+    double length = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+    if (length == 0) {
+      setIdentity(out);
+      return;
+    }
+    double scale = Math.sin(angle * 0.5) / length;
+    set(Math.cos(angle * 0.5), axisX * scale, axisY * scale, axisZ * scale, out);
+  }
+
+  /**
+   * Writes the unit axis and the angle in [0, pi] of unit quaternion {@code q} to
+   * {@code out[0..3]}. The identity yields the x axis and a zero angle.
+   */
+  public static void toAxisAngle(double[] q, double[] out) {
+    double sign = q[0] < 0 ? -1 : 1;
+    double sinHalfAngle = Math.sqrt(q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+    double angle = 2 * Math.atan2(sinHalfAngle, sign * q[0]);
+    if (sinHalfAngle == 0) {
+      out[0] = 1;
+      out[1] = 0;
+      out[2] = 0;
+    } else {
+      double scale = sign / sinHalfAngle;
+      out[0] = q[1] * scale;
+      out[1] = q[2] * scale;
+      out[2] = q[3] * scale;
+    }
+    out[3] = angle;
+  }
+
+  /**
+   * Converts an Android rotation vector sensor reading, as {@code SensorManager}'s
+   * getQuaternionFromVector does. The fourth value, cos(angle / 2), is derived when absent.
+   */
+  public static void fromRotationVector(float[] values, double[] out) {
+    double x = values[0];
+    double y = values[1];
+    double z = values[2];
+    double w;
+    if (values.length >= 4) {
+      w = values[3];
+    } else {
+      w = Math.sqrt(Math.max(0, 1 - x * x - y * y - z * z));
+    }
+    set(w, x, y, z, out);
+  }
+
+  public static void toRotationMatrix(double[] q, double[] out) {
+    double w = q[0];
+    double x = q[1];
+    double y = q[2];
+    double z = q[3];
+    out[0] = 1 - 2 * (y * y + z * z);
+    out[1] = 2 * (x * y - w * z);
+    out[2] = 2 * (x * z + w * y);
+    out[3] = 2 * (x * y + w * z);
+    out[4] = 1 - 2 * (x * x + z * z);
+    out[5] = 2 * (y * z - w * x);
+    out[6] = 2 * (x * z - w * y);
+    out[7] = 2 * (y * z + w * x);
+    out[8] = 1 - 2 * (x * x + y * y);
+  }
+
+  /**
+   * Converts a proper rotation matrix, choosing the numerically stable branch by its trace.
+   */
+  public static void fromRotationMatrix(double[] m, double[] out) {
+    double trace = m[0] + m[4] + m[8];
+    double w;
+    double x;
+    double y;
+    double z;
+    if (trace > 0) {
+      double s = 0.5 / Math.sqrt(trace + 1);
+      w = 0.25 / s;
+      x = (m[7] - m[5]) * s;
+      y = (m[2] - m[6]) * s;
+      z = (m[3] - m[1]) * s;
+    } else if (m[0] > m[4] && m[0] > m[8]) {
+      double s = 2 * Math.sqrt(1 + m[0] - m[4] - m[8]);
+      w = (m[7] - m[5]) / s;
+      x = 0.25 * s;
+      y = (m[1] + m[3]) / s;
+      z = (m[2] + m[6]) / s;
+    } else if (m[4] > m[8]) {
+      double s = 2 * Math.sqrt(1 + m[4] - m[0] - m[8]);
+      w = (m[2] - m[6]) / s;
+      x = (m[1] + m[3]) / s;
+      y = 0.25 * s;
+      z = (m[5] + m[7]) / s;
+    } else {
+      double s = 2 * Math.sqrt(1 + m[8] - m[0] - m[4]);
+      w = (m[3] - m[1]) / s;
+      x = (m[2] + m[6]) / s;
+      y = (m[5] + m[7]) / s;
+      z = 0.25 * s;
+    }
+    set(w, x, y, z, out);
+    normalize(out, out);
+  }
+}
@@ -0,0 +1,113 @@
+package org.ros.android.sensor;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SensorSource} backed by the default sensors of a {@link SensorManager}.
+ * <p>
+ * Events are delivered on a dedicated {@link HandlerThread} rather than the main looper. The report
+ * latency is honored from KitKat on, and only by sensors with a hardware FIFO.
+ */
+public class AndroidSensorSource implements SensorSource {
+
+  private final SensorManager sensorManager;
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final Map<SensorSampleListener, SensorEventListener> listeners =
+      new HashMap<SensorSampleListener, SensorEventListener>();
+
+  public AndroidSensorSource(SensorManager sensorManager) {
+    this(sensorManager, "SensorSource");
+  }
+
+  public AndroidSensorSource(SensorManager sensorManager, String threadName) {
+    this.sensorManager = sensorManager;
+    // Above the default priority, so sensor events are not delayed behind background work.
+    thread = new HandlerThread(threadName,
+        Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  @Override
+  public boolean hasSensor(int sensorType) {
+    return sensorManager.getDefaultSensor(sensorType) != null;
+  }
+
+  /**
+   * @return the number of events the FIFO of the sensor can hold, zero if it has none
+   */
+  public int getFifoMaxEventCount(int sensorType) {
+    Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+    if (sensor == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      return 0;
+    }
+    return sensor.getFifoMaxEventCount();
+  }
+
+  @Override
+  public synchronized boolean register(int sensorType, int samplingPeriodUs,
+      int maxReportLatencyUs, final SensorSampleListener listener) {
+    Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+    if (sensor == null) {
+      return false;
+    }
+    unregister(listener);
+    SensorEventListener eventListener = new SensorEventListener() {
+      @Override
+      public void onSensorChanged(SensorEvent event) {
+        listener.onSensorSample(event.sensor.getType(), event.timestamp, event.values);
+      }
+
+      @Override
+      public void onAccuracyChanged(Sensor sensor, int accuracy) {
+      }
+    };
+    boolean registered;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      registered = sensorManager.registerListener(eventListener, sensor, samplingPeriodUs,
+          maxReportLatencyUs, handler);
+    } else {
+      registered = sensorManager.registerListener(eventListener, sensor, samplingPeriodUs, handler);
+    }
+    if (registered) {
+      listeners.put(listener, eventListener);
+    }
+    return registered;
+  }
+
+  @Override
+  public synchronized void unregister(SensorSampleListener listener) {
+    SensorEventListener eventListener = listeners.remove(listener);
+    if (eventListener != null) {
+      sensorManager.unregisterListener(eventListener);
+    }
+  }
+
+  @Override
+  public synchronized void flush(SensorSampleListener listener) {
+    SensorEventListener eventListener = listeners.get(listener);
+    if (eventListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      sensorManager.flush(eventListener);
+    }
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    for (SensorEventListener eventListener : listeners.values()) {
+      sensorManager.unregisterListener(eventListener);
+    }
+    listeners.clear();
+    thread.quit();
+  }
+}
@@ -0,0 +1,109 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.message.MessageFactory;
+import org.ros.message.Time;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sensor_msgs.Imu;
+import std_msgs.Float64MultiArray;
+import std_msgs.MultiArrayDimension;
+
+/**
+ * Packs IMU samples into std_msgs/Float64MultiArray messages and unpacks them again.
+ * <p>
+ * A batch is a samples by fields matrix in row-major order. Each row holds the ROS time of the
+ * sample in seconds, the linear acceleration, the angular velocity and the orientation quaternion
+ * (w, x, y, z), at the field indices defined here. The dimensions are labelled "samples" and
+ * "fields".
+ */
+public class ImuBatch {
+
+  public static final int STAMP = 0;
+  public static final int LINEAR_ACCELERATION = 1;
+  public static final int ANGULAR_VELOCITY = 4;
+  public static final int ORIENTATION = 7;
+  public static final int FIELD_COUNT = 11;
+
+  /** The fields of a sample as kept in a {@link SampleBatcher}, i.e. without the stamp. */
+  public static final int SAMPLE_FIELD_COUNT = FIELD_COUNT - 1;
+
+  private ImuBatch() {
+  }
+
+  /**
+   * Moves the samples of {@code batcher} into {@code message} and clears it. The batcher's
+   * timestamps are event timestamps, converted to ROS time through their age.
+   *
+   * @param rosTimeNanos
+   *          the current ROS time
+   */
+  public static void drain(SampleBatcher batcher, SensorClock clock, long rosTimeNanos,
+      MessageFactory messageFactory, Float64MultiArray message) {
+    Preconditions.checkArgument(batcher.getFieldCount() == SAMPLE_FIELD_COUNT,
+        "The batcher holds %s fields per sample, expected %s", batcher.getFieldCount(),
+        SAMPLE_FIELD_COUNT);
+    int sampleCount = batcher.size();
+    double[] data = new double[sampleCount * FIELD_COUNT];
+    for (int i = 0; i < sampleCount; i++) {
+      long stampNanos = rosTimeNanos - clock.getAgeNanos(batcher.getTimestamp(i));
+      data[i * FIELD_COUNT + STAMP] = stampNanos / 1e9;
+      batcher.getValues(i, data, i * FIELD_COUNT + 1);
+    }
+    batcher.clear();
+
+    List<MultiArrayDimension> dimensions = new ArrayList<MultiArrayDimension>(2);
+    dimensions.add(newDimension(messageFactory, "samples", sampleCount, sampleCount * FIELD_COUNT));
+    dimensions.add(newDimension(messageFactory, "fields", FIELD_COUNT, FIELD_COUNT));
+    message.getLayout().setDim(dimensions);
+    message.getLayout().setDataOffset(0);
+    message.setData(data);
+  }
+
+  private static MultiArrayDimension newDimension(MessageFactory messageFactory, String label,
+      int size, int stride) {
+    MultiArrayDimension dimension = messageFactory.newFromType(MultiArrayDimension._TYPE);
+    dimension.setLabel(label);
+    dimension.setSize(size);
+    dimension.setStride(stride);
+    return dimension;
+  }
+
+  public static int getSampleCount(Float64MultiArray batch) {
+    return (batch.getData().length - batch.getLayout().getDataOffset()) / FIELD_COUNT;
+  }
+
+  /**
+   * @return field {@code field} of sample {@code index}
+   */
+  public static double get(Float64MultiArray batch, int index, int field) {
+    return batch.getData()[batch.getLayout().getDataOffset() + index * FIELD_COUNT + field];
+  }
+
+  /**
+   * Fills the stamp, linear acceleration, angular velocity and orientation of {@code imu} from
+   * sample {@code index} of {@code batch}, leaving the frame id and covariances as they are.
+   */
+  public static void unbatch(Float64MultiArray batch, int index, Imu imu) {
+    Preconditions.checkElementIndex(index, getSampleCount(batch));
+    double[] data = batch.getData();
+    int offset = batch.getLayout().getDataOffset() + index * FIELD_COUNT;
+    imu.getHeader().setStamp(Time.fromNano(Math.round(data[offset + STAMP] * 1e9)));
+    int i = offset + LINEAR_ACCELERATION;
+    imu.getLinearAcceleration().setX(data[i]);
+    imu.getLinearAcceleration().setY(data[i + 1]);
+    imu.getLinearAcceleration().setZ(data[i + 2]);
+    i = offset + ANGULAR_VELOCITY;
+    imu.getAngularVelocity().setX(data[i]);
+    imu.getAngularVelocity().setY(data[i + 1]);
+    imu.getAngularVelocity().setZ(data[i + 2]);
+    i = offset + ORIENTATION;
+    imu.getOrientation().setW(data[i]);
+    imu.getOrientation().setX(data[i + 1]);
+    imu.getOrientation().setY(data[i + 2]);
+    imu.getOrientation().setZ(data[i + 3]);
+  }
+}
@@ -0,0 +1,146 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.math.Quaternions;
+
+/**
+ * Fuses gyroscope and accelerometer readings into an orientation quaternion with Madgwick's
+ * gradient descent filter, without allocating.
+ * <p>
+ * Every gyroscope reading is integrated, and the accelerometer pulls roll and pitch towards the
+ * measured gravity at a rate set by the gain {@code beta}. Yaw is only integrated and drifts with
+ * the gyroscope bias. The orientation rotates sensor coordinates into a frame whose z axis points
+ * up, such as Android's device coordinates. Instances are not thread-safe.
+ */
+public class MadgwickFilter {
+
+  /** The gain Madgwick suggests for MEMS gyroscopes, in rad/s. */
+  public static final double DEFAULT_BETA = 0.1;
+
+  private double beta;
+  /** The orientation as (w, x, y, z). */
+  private final double[] quaternion = {1, 0, 0, 0};
+  private boolean initialized;
+
+  public MadgwickFilter() {
+    this(DEFAULT_BETA);
+  }
+
+  public MadgwickFilter(double beta) {
+    setBeta(beta);
+  }
+
+  public void setBeta(double beta) {
+    Preconditions.checkArgument(beta >= 0, "beta must not be negative, was %s", beta);
+    this.beta = beta;
+  }
+
+  /**
+   * Forgets the orientation; the next update starts from the measured gravity.
+   */
+  public void reset() {
+    Quaternions.setIdentity(quaternion);
+    initialized = false;
+  }
+
+  /**
+   * Integrates one gyroscope reading.
+   *
+   * @param gx
+   *          the angular velocity around x in rad/s, and so on
+   * @param ax
+   *          the acceleration along x including gravity in any unit, and so on; all zero to skip
+   *          the correction
+   * @param dt
+   *          the time since the previous reading in seconds
+   */
+  public void update(double gx, double gy, double gz, double ax, double ay, double az, double dt) {
+    double accelerationNorm = Math.sqrt(ax * ax + ay * ay + az * az);
+    if (!initialized) {
+      if (accelerationNorm > 0) {
+        initialize(ax / accelerationNorm, ay / accelerationNorm, az / accelerationNorm);
+      }
+      return;
+    }
+
+    double w = quaternion[0];
+    double x = quaternion[1];
+    double y = quaternion[2];
+    double z = quaternion[3];
+
+    // Rate of change of the orientation from the gyroscope.
+    double dw = 0.5 * (-x * gx - y * gy - z * gz);
+    double dx = 0.5 * (w * gx + y * gz - z * gy);
+    double dy = 0.5 * (w * gy - x * gz + z * gx);
+    double dz = 0.5 * (w * gz + x * gy - y * gx);
+
+    if (accelerationNorm > 0) {
+      ax /= accelerationNorm;
+      ay /= accelerationNorm;
+      az /= accelerationNorm;
+
+      // Gradient of the error between measured and predicted gravity.
+      double ww = w * w;
+      double xx = x * x;
+      double yy = y * y;
+      double zz = z * z;
+      double sw = 4 * w * yy + 2 * y * ax + 4 * w * xx - 2 * x * ay;
+      double sx = 4 * x * zz - 2 * z * ax + 4 * ww * x - 2 * w * ay - 4 * x + 8 * x * xx
+          + 8 * x * yy + 4 * x * az;
+      double sy = 4 * ww * y + 2 * w * ax + 4 * y * zz - 2 * z * ay - 4 * y + 8 * y * xx
+          + 8 * y * yy + 4 * y * az;
+      double sz = 4 * xx * z - 2 * x * ax + 4 * yy * z - 2 * y * ay;
+      double gradientNorm = Math.sqrt(sw * sw + sx * sx + sy * sy + sz * sz);
+      if (gradientNorm > 0) {
+        double step = beta / gradientNorm;
+        dw -= step * sw;
+        dx -= step * sx;
+        dy -= step * sy;
+        dz -= step * sz;
+      }
+    }
+
+    Quaternions.set(w + dw * dt, x + dx * dt, y + dy * dt, z + dz * dt, quaternion);
+    Quaternions.normalize(quaternion, quaternion);
+  }
+
+  /**
+   * Starts from the roll and pitch of the measured gravity, with zero yaw.
+   */
+  private void initialize(double ax, double ay, double az) {
+    Quaternions.fromEuler(Math.atan2(ay, az), Math.atan2(-ax, Math.sqrt(ay * ay + az * az)), 0,
+        quaternion);
+    initialized = true;
+  }
+
+  /**
+   * @return {@code true} once the filter has seen gravity and holds an orientation
+   */
+  public boolean isInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Copies the orientation as (w, x, y, z) to {@code out}.
+   */
+  public void getQuaternion(double[] out) {
+    System.arraycopy(quaternion, 0, out, 0, 4);
+  }
+
+  public double getW() {
+    return quaternion[0];
+  }
+
+  public double getX() {
+    return quaternion[1];
+  }
+
+  public double getY() {
+    return quaternion[2];
+  }
+
+  public double getZ() {
+    return quaternion[3];
+  }
+}
@@ -0,0 +1,89 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Aligns the samples of several sensors to common timestamps, so that one message combines
+ * readings taken at the same time.
+ * <p>
+ * The common timestamp is the newest one all streams have reached, i.e. the newest sample of the
+ * stream that reported last. Every stream is interpolated to it. If a stream has no sample within
+ * the maximum skew of that time the combination is dropped. Streams are fed by their sensors; one
+ * thread calls {@link #align(double[][])}.
+ */
+public class SampleAligner {
+
+  private final SampleRingBuffer[] streams;
+  private volatile long maxSkewNanos;
+  private volatile long lastTimestamp = Long.MIN_VALUE;
+  private long alignedCount;
+  private long droppedCount;
+
+  public SampleAligner(long maxSkewNanos, SampleRingBuffer... streams) {
+    Preconditions.checkArgument(streams.length > 0, "No streams to align.");
+    this.streams = streams;
+    setMaxSkewNanos(maxSkewNanos);
+  }
+
+  public void setMaxSkewNanos(long maxSkewNanos) {
+    Preconditions.checkArgument(maxSkewNanos >= 0, "maxSkewNanos must not be negative, was %s",
+        maxSkewNanos);
+    this.maxSkewNanos = maxSkewNanos;
+  }
+
+  /**
+   * @return the newest timestamp all streams have reached, or {@link Long#MIN_VALUE} if a stream
+   *         has no samples
+   */
+  private long commonTimestamp() {
+    long timestamp = Long.MAX_VALUE;
+    for (SampleRingBuffer stream : streams) {
+      timestamp = Math.min(timestamp, stream.getNewestTimestamp());
+    }
+    return timestamp;
+  }
+
+  /**
+   * @return {@code true} if every stream has a sample newer than the last aligned or dropped
+   *         timestamp
+   */
+  public boolean hasUpdate() {
+    return commonTimestamp() > lastTimestamp;
+  }
+
+  /**
+   * Interpolates every stream to the newest common timestamp, if there is a new one.
+   *
+   * @param result
+   *          receives the values of stream {@code i} in {@code result[i]}
+   * @return the common timestamp, or {@link Long#MIN_VALUE} if there is no new one or it was
+   *         dropped for exceeding the maximum skew
+   */
+  public long align(double[][] result) {
+    long timestamp = commonTimestamp();
+    if (timestamp <= lastTimestamp) {
+      return Long.MIN_VALUE;
+    }
+    lastTimestamp = timestamp;
+    for (int i = 0; i < streams.length; i++) {
+      long skew = streams[i].interpolate(timestamp, result[i]);
+      if (skew < 0 || skew > maxSkewNanos) {
+        droppedCount++;
+        return Long.MIN_VALUE;
+      }
+    }
+    alignedCount++;
+    return timestamp;
+  }
+
+  public long getAlignedCount() {
+    return alignedCount;
+  }
+
+  /**
+   * @return the number of common timestamps dropped for exceeding the maximum skew
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+}
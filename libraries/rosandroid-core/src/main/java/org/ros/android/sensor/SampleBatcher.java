@@ -0,0 +1,122 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Collects timestamped samples in preallocated primitive arrays until a batch is due, i.e. holds
+ * the maximum number of samples or its oldest sample reached the maximum delay.
+ * <p>
+ * The arrays form a ring: if a batch is not drained in time, the oldest samples are overwritten and
+ * counted as dropped. Instances are not thread-safe.
+ */
+public class SampleBatcher {
+
+  private final int fieldCount;
+  private final int maxSamples;
+  private final long maxDelayNanos;
+  private final long[] timestamps;
+  private final long[] addedNanos;
+  private final double[] values;
+  private int oldest;
+  private int size;
+  private long droppedCount;
+
+  /**
+   * @param maxDelayNanos
+   *          how long the oldest sample may wait, measured with {@link System#nanoTime()} from when
+   *          it was added
+   */
+  public SampleBatcher(int fieldCount, int maxSamples, long maxDelayNanos) {
+    Preconditions.checkArgument(fieldCount > 0, "fieldCount must be positive, was %s", fieldCount);
+    Preconditions.checkArgument(maxSamples > 0, "maxSamples must be positive, was %s", maxSamples);
+    Preconditions.checkArgument(maxDelayNanos >= 0, "maxDelayNanos must not be negative, was %s",
+        maxDelayNanos);
+    this.fieldCount = fieldCount;
+    this.maxSamples = maxSamples;
+    this.maxDelayNanos = maxDelayNanos;
+    timestamps = new long[maxSamples];
+    addedNanos = new long[maxSamples];
+    values = new double[maxSamples * fieldCount];
+  }
+
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  public int getMaxSamples() {
+    return maxSamples;
+  }
+
+  /**
+   * Adds a sample whose fields are the values of {@code parts} one after the other.
+   */
+  public void add(long timestampNanos, double[][] parts) {
+    int slot = (oldest + size) % maxSamples;
+    if (size == maxSamples) {
+      oldest = (oldest + 1) % maxSamples;
+      droppedCount++;
+    } else {
+      size++;
+    }
+    timestamps[slot] = timestampNanos;
+    addedNanos[slot] = System.nanoTime();
+    int offset = slot * fieldCount;
+    int end = offset + fieldCount;
+    for (double[] part : parts) {
+      int length = Math.min(part.length, end - offset);
+      System.arraycopy(part, 0, values, offset, length);
+      offset += length;
+    }
+    Preconditions.checkArgument(offset == end, "The parts hold fewer than %s values", fieldCount);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return {@code true} if the batch is full or its oldest sample waited for the maximum delay
+   */
+  public boolean isDue(long nowNanos) {
+    return size == maxSamples || (size > 0 && nowNanos - addedNanos[oldest] >= maxDelayNanos);
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} at which the batch will be due by age, or
+   *         {@link Long#MAX_VALUE} if it is empty
+   */
+  public long getDueNanos() {
+    return size > 0 ? addedNanos[oldest] + maxDelayNanos : Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the timestamp of the {@code index}th oldest sample
+   */
+  public long getTimestamp(int index) {
+    return timestamps[slotOf(index)];
+  }
+
+  /**
+   * Copies the fields of the {@code index}th oldest sample to {@code destination}.
+   */
+  public void getValues(int index, double[] destination, int offset) {
+    System.arraycopy(values, slotOf(index) * fieldCount, destination, offset, fieldCount);
+  }
+
+  private int slotOf(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return (oldest + index) % maxSamples;
+  }
+
+  public void clear() {
+    oldest = 0;
+    size = 0;
+  }
+
+  /**
+   * @return the number of samples overwritten before they were drained
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+}
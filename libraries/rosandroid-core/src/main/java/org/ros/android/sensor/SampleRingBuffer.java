@@ -0,0 +1,214 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the latest samples of a sensor with their event timestamps in preallocated primitive
+ * arrays and interpolates them linearly to any time they span.
+ * <p>
+ * Samples must be added in timestamp order; older ones are overwritten once the buffer is full.
+ * Values of an angular buffer are angles in radians and are interpolated the short way around the
+ * circle.
+ * <p>
+ * Like {@link SensorSnapshot}, the buffer hands samples from one writing thread to the readers
+ * without locks or allocation. The writer fills a slot and then publishes the new sample count.
+ * Readers copy what they need and re-read the count afterwards; if the writer has meanwhile
+ * started to overwrite a slot they read, they retry. There must be one writing thread at a time;
+ * any number of threads may read.
+ */
+public class SampleRingBuffer {
+
+  private final int valueCount;
+  private final boolean angular;
+  private final int capacity;
+  // There is one slot more than the capacity, which the writer fills while readers still see
+  // capacity older samples. Elements are accessed atomically so that a reader's copy is ordered
+  // before its re-read of the sample count.
+  private final AtomicLongArray timestamps;
+  private final AtomicLongArray values;
+  /** The number of samples ever added. Sample {@code i} is in slot {@code i % (capacity + 1)}. */
+  private volatile long count;
+  /** The number of the oldest sample kept since the buffer was last cleared. */
+  private volatile long first;
+
+  public SampleRingBuffer(int valueCount, int capacity, boolean angular) {
+    Preconditions.checkArgument(valueCount > 0, "valueCount must be positive, was %s", valueCount);
+    Preconditions.checkArgument(capacity >= 2, "capacity must be at least 2, was %s", capacity);
+    this.valueCount = valueCount;
+    this.angular = angular;
+    this.capacity = capacity;
+    timestamps = new AtomicLongArray(capacity + 1);
+    values = new AtomicLongArray((capacity + 1) * valueCount);
+  }
+
+  public int getValueCount() {
+    return valueCount;
+  }
+
+  /**
+   * Called by the writer only.
+   */
+  public void add(long timestampNanos, double x, double y, double z) {
+    Preconditions.checkArgument(valueCount == 3, "The buffer holds %s values", valueCount);
+    int slot = nextSlot(timestampNanos);
+    values.lazySet(slot * 3, Double.doubleToRawLongBits(x));
+    values.lazySet(slot * 3 + 1, Double.doubleToRawLongBits(y));
+    values.lazySet(slot * 3 + 2, Double.doubleToRawLongBits(z));
+    count++;
+  }
+
+  /**
+   * Called by the writer only.
+   */
+  public void add(long timestampNanos, double[] sample) {
+    Preconditions.checkArgument(sample.length >= valueCount, "Expected %s values", valueCount);
+    int offset = nextSlot(timestampNanos) * valueCount;
+    for (int i = 0; i < valueCount; i++) {
+      values.lazySet(offset + i, Double.doubleToRawLongBits(sample[i]));
+    }
+    count++;
+  }
+
+  /**
+   * @return the slot of the sample being added, whose timestamp is already set
+   */
+  private int nextSlot(long timestampNanos) {
+    long count = this.count;
+    if (count > first && timestampNanos < timestamps.get(slotOf(count - 1))) {
+      // The sensor's clock went back, e.g. after it was reset; older samples are of no use.
+      clear();
+    }
+    int slot = slotOf(count);
+    timestamps.lazySet(slot, timestampNanos);
+    return slot;
+  }
+
+  /**
+   * Called by the writer only.
+   */
+  public void clear() {
+    first = count;
+  }
+
+  private int slotOf(long sample) {
+    return (int) (sample % (capacity + 1));
+  }
+
+  /**
+   * @return the number of the oldest sample readers may use
+   */
+  private long oldest(long count, long first) {
+    return Math.max(first, count - capacity);
+  }
+
+  /**
+   * @return {@code true} if the buffer was not cleared since {@code first} was read and the writer
+   *         has not started to overwrite sample {@code oldestRead} or any newer one
+   */
+  private boolean isValid(long first, long oldestRead) {
+    return this.first == first && oldestRead >= oldest(count, first);
+  }
+
+  public boolean isEmpty() {
+    return count == first;
+  }
+
+  /**
+   * @return the timestamp of the newest sample, or {@link Long#MIN_VALUE} if there is none
+   */
+  public long getNewestTimestamp() {
+    while (true) {
+      long count = this.count;
+      long first = this.first;
+      if (count == first) {
+        return Long.MIN_VALUE;
+      }
+      long timestamp = timestamps.get(slotOf(count - 1));
+      if (isValid(first, count - 1)) {
+        return timestamp;
+      }
+    }
+  }
+
+  /**
+   * @return the timestamp of the oldest sample kept, or {@link Long#MIN_VALUE} if there is none
+   */
+  public long getOldestTimestamp() {
+    while (true) {
+      long count = this.count;
+      long first = this.first;
+      if (count == first) {
+        return Long.MIN_VALUE;
+      }
+      long oldest = oldest(count, first);
+      long timestamp = timestamps.get(slotOf(oldest));
+      if (isValid(first, oldest)) {
+        return timestamp;
+      }
+    }
+  }
+
+  /**
+   * Interpolates the samples to {@code timestampNanos}. After the newest sample, the newest values
+   * are held.
+   *
+   * @param result
+   *          receives {@link #getValueCount()} values
+   * @return the distance in nanoseconds from {@code timestampNanos} to the closest sample, or -1 if
+   *         {@code timestampNanos} is before the oldest sample kept
+   */
+  public long interpolate(long timestampNanos, double[] result) {
+    while (true) {
+      long count = this.count;
+      long first = this.first;
+      long oldest = oldest(count, first);
+      long oldestRead = oldest;
+      long distance = -1;
+      if (count > first) {
+        long after = count - 1;
+        long afterTimestamp = timestamps.get(slotOf(after));
+        if (timestampNanos >= afterTimestamp) {
+          for (int i = 0; i < valueCount; i++) {
+            result[i] = value(after, i);
+          }
+          distance = timestampNanos - afterTimestamp;
+          oldestRead = after;
+        } else {
+          for (long before = after - 1; before >= oldest; before--) {
+            long beforeTimestamp = timestamps.get(slotOf(before));
+            if (beforeTimestamp <= timestampNanos) {
+              double fraction =
+                  (double) (timestampNanos - beforeTimestamp) / (afterTimestamp - beforeTimestamp);
+              for (int i = 0; i < valueCount; i++) {
+                result[i] = interpolate(value(before, i), value(after, i), fraction);
+              }
+              distance = Math.min(timestampNanos - beforeTimestamp, afterTimestamp - timestampNanos);
+              oldestRead = before;
+              break;
+            }
+            after = before;
+            afterTimestamp = beforeTimestamp;
+          }
+        }
+      }
+      if (isValid(first, oldestRead)) {
+        return distance;
+      }
+    }
+  }
+
+  private double value(long sample, int index) {
+    return Double.longBitsToDouble(values.get(slotOf(sample) * valueCount + index));
+  }
+
+  private double interpolate(double from, double to, double fraction) {
+    double difference = to - from;
+    if (angular) {
+      difference = Math.IEEEremainder(difference, 2 * Math.PI);
+      return Math.IEEEremainder(from + difference * fraction, 2 * Math.PI);
+    }
+    return from + difference * fraction;
+  }
+}
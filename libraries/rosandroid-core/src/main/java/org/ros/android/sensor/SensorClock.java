@@ -0,0 +1,44 @@
+package org.ros.android.sensor;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Converts {@code SensorEvent.timestamp} values to ages.
+ * <p>
+ * Sensor events are stamped with {@link SystemClock#elapsedRealtimeNanos()} on most devices, but
+ * with {@link System#nanoTime()} on some older ones. The clock whose current time is closest to the
+ * first timestamp is kept for later events and revisited if ages stop being plausible.
+ */
+public class SensorClock {
+
+  private static final long MIN_PLAUSIBLE_AGE_NANOS = -1000000000L;
+  private static final long MAX_PLAUSIBLE_AGE_NANOS = 10000000000L;
+
+  private volatile boolean elapsedRealtime = true;
+
+  /**
+   * @return the nanoseconds since {@code timestampNanos}, never negative
+   */
+  public long getAgeNanos(long timestampNanos) {
+    long age = now(elapsedRealtime) - timestampNanos;
+    if (age < MIN_PLAUSIBLE_AGE_NANOS || age > MAX_PLAUSIBLE_AGE_NANOS) {
+      long otherAge = now(!elapsedRealtime) - timestampNanos;
+      if (Math.abs(otherAge) < Math.abs(age)) {
+        elapsedRealtime = !elapsedRealtime;
+        age = otherAge;
+      }
+    }
+    return Math.max(0, age);
+  }
+
+  private static long now(boolean elapsedRealtime) {
+    if (!elapsedRealtime) {
+      return System.nanoTime();
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+      return SystemClock.elapsedRealtimeNanos();
+    }
+    return SystemClock.elapsedRealtime() * 1000000L;
+  }
+}
@@ -0,0 +1,151 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the sensor registrations of an application, each with its own sampling period and report
+ * latency.
+ * <p>
+ * A report latency lets the sensor hub collect samples in its FIFO and deliver them in batches,
+ * so the application processor is not woken up for every sample. Registrations can be retuned or
+ * removed while running, and {@link #shutdown()} releases all of them together with the
+ * {@link SensorSource}.
+ */
+public class SensorRegistry {
+
+  /**
+   * A sensor registered with a {@link SensorRegistry}.
+   */
+  public class Registration implements SensorSampleListener {
+
+    private final int sensorType;
+    private final SensorSampleListener listener;
+    private volatile int samplingPeriodUs;
+    private volatile int maxReportLatencyUs;
+    private volatile long sampleCount;
+
+    private Registration(int sensorType, SensorSampleListener listener) {
+      this.sensorType = sensorType;
+      this.listener = listener;
+    }
+
+    @Override
+    public void onSensorSample(int sensorType, long timestampNanos, float[] values) {
+      // Only written on the delivery thread.
+      sampleCount++;
+      listener.onSensorSample(sensorType, timestampNanos, values);
+    }
+
+    public int getSensorType() {
+      return sensorType;
+    }
+
+    public int getSamplingPeriodUs() {
+      return samplingPeriodUs;
+    }
+
+    public int getMaxReportLatencyUs() {
+      return maxReportLatencyUs;
+    }
+
+    public long getSampleCount() {
+      return sampleCount;
+    }
+
+    /**
+     * Re-registers the sensor with a new sampling period and report latency.
+     *
+     * @return {@code false} if the sensor could not be enabled with them, in which case it is
+     *         unregistered
+     */
+    public boolean setRate(int samplingPeriodUs, int maxReportLatencyUs) {
+      synchronized (SensorRegistry.this) {
+        Preconditions.checkState(registrations.contains(this), "Registration was removed.");
+        if (!register(this, samplingPeriodUs, maxReportLatencyUs)) {
+          registrations.remove(this);
+          return false;
+        }
+        return true;
+      }
+    }
+
+    /**
+     * Delivers the samples waiting in the FIFO of the sensor.
+     */
+    public void flush() {
+      source.flush(this);
+    }
+  }
+
+  private final SensorSource source;
+  private final List<Registration> registrations = new ArrayList<Registration>();
+
+  public SensorRegistry(SensorSource source) {
+    this.source = source;
+  }
+
+  public SensorSource getSource() {
+    return source;
+  }
+
+  /**
+   * @param samplingPeriodUs
+   *          the requested time between samples, zero for as fast as possible
+   * @param maxReportLatencyUs
+   *          how long samples may be batched in the hardware FIFO, zero to deliver each sample
+   *          as soon as it is taken
+   * @return the registration, or {@code null} if the sensor does not exist or could not be enabled
+   */
+  public synchronized Registration register(int sensorType, int samplingPeriodUs,
+      int maxReportLatencyUs, SensorSampleListener listener) {
+    Preconditions.checkNotNull(listener);
+    Registration registration = new Registration(sensorType, listener);
+    if (!register(registration, samplingPeriodUs, maxReportLatencyUs)) {
+      return null;
+    }
+    registrations.add(registration);
+    return registration;
+  }
+
+  private boolean register(Registration registration, int samplingPeriodUs,
+      int maxReportLatencyUs) {
+    Preconditions.checkArgument(samplingPeriodUs >= 0,
+        "samplingPeriodUs must not be negative, was %s", samplingPeriodUs);
+    Preconditions.checkArgument(maxReportLatencyUs >= 0,
+        "maxReportLatencyUs must not be negative, was %s", maxReportLatencyUs);
+    registration.samplingPeriodUs = samplingPeriodUs;
+    registration.maxReportLatencyUs = maxReportLatencyUs;
+    return source.register(registration.sensorType, samplingPeriodUs, maxReportLatencyUs,
+        registration);
+  }
+
+  public synchronized void unregister(Registration registration) {
+    if (registrations.remove(registration)) {
+      source.unregister(registration);
+    }
+  }
+
+  public synchronized List<Registration> getRegistrations() {
+    return new ArrayList<Registration>(registrations);
+  }
+
+  /**
+   * Delivers the samples waiting in the FIFOs of all registered sensors.
+   */
+  public synchronized void flush() {
+    for (Registration registration : registrations) {
+      source.flush(registration);
+    }
+  }
+
+  /**
+   * Unregisters all sensors and shuts down the source.
+   */
+  public synchronized void shutdown() {
+    registrations.clear();
+    source.shutdown();
+  }
+}
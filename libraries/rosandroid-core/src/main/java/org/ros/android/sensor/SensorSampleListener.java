@@ -0,0 +1,17 @@
+package org.ros.android.sensor;
+
+/**
+ * Receives samples from a {@link SensorSource}.
+ */
+public interface SensorSampleListener {
+
+  /**
+   * @param sensorType
+   *          one of the {@code android.hardware.Sensor.TYPE_*} constants
+   * @param timestampNanos
+   *          the time the sample was taken, on the clock of {@code SensorEvent.timestamp}
+   * @param values
+   *          the sample, only valid during the call
+   */
+  void onSensorSample(int sensorType, long timestampNanos, float[] values);
+}
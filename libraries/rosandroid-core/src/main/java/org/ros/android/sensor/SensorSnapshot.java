@@ -0,0 +1,102 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest sample of a sensor from the thread receiving its events to one reading thread
+ * without locks, allocation or torn reads.
+ * <p>
+ * This is a triple buffer: the writer fills a back buffer and swaps it with the middle one, and the
+ * reader swaps the middle buffer with its front buffer when a newer sample is there. Both swaps are
+ * a single atomic exchange, so the reader always sees every value of a sample together. Samples
+ * published in between two reads are overwritten. There must be one writing and one reading
+ * thread at a time.
+ */
+public class SensorSnapshot {
+
+  private static final int INDEX_MASK = 3;
+  private static final int FRESH = 4;
+
+  private final double[][] values;
+  private final long[] timestamps = new long[3];
+  private final long[] sequences = new long[3];
+  /** The index of the middle buffer, with {@link #FRESH} set if the writer published it. */
+  private final AtomicInteger middle = new AtomicInteger(1);
+  private int back = 0;
+  private int front = 2;
+  private long nextSequence = 1;
+
+  public SensorSnapshot(int valueCount) {
+    Preconditions.checkArgument(valueCount > 0, "valueCount must be positive, was %s", valueCount);
+    values = new double[3][valueCount];
+  }
+
+  public int getValueCount() {
+    return values[0].length;
+  }
+
+  /**
+   * Sets a value of the sample being written. Called by the writer only.
+   */
+  public void set(int index, double value) {
+    values[back][index] = value;
+  }
+
+  public void set(double x, double y, double z) {
+    double[] sample = values[back];
+    sample[0] = x;
+    sample[1] = y;
+    sample[2] = z;
+  }
+
+  /**
+   * Makes the sample being written visible to the reader. Called by the writer only.
+   *
+   * @param timestampNanos
+   *          the time of the sample, e.g. {@code SensorEvent.timestamp}
+   */
+  public void publish(long timestampNanos) {
+    timestamps[back] = timestampNanos;
+    sequences[back] = nextSequence++;
+    back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+  }
+
+  /**
+   * @return {@code true} if a sample was published since the reader last took one
+   */
+  public boolean hasUpdate() {
+    return (middle.get() & FRESH) != 0;
+  }
+
+  /**
+   * Takes the latest published sample, if there is a newer one, for the getters. Called by the
+   * reader only.
+   *
+   * @return {@code true} if a newer sample was taken
+   */
+  public boolean update() {
+    if (!hasUpdate()) {
+      return false;
+    }
+    front = middle.getAndSet(front) & INDEX_MASK;
+    return true;
+  }
+
+  public double get(int index) {
+    return values[front][index];
+  }
+
+  public long getTimestampNanos() {
+    return timestamps[front];
+  }
+
+  /**
+   * @return the number of the sample last taken by the reader, counting from 1, or 0 if none was
+   *         taken yet
+   */
+  public long getSequence() {
+    return sequences[front];
+  }
+}
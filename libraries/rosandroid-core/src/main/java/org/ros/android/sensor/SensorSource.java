@@ -0,0 +1,36 @@
+package org.ros.android.sensor;
+
+/**
+ * Delivers samples of the sensors of a device, or of a stand-in for one.
+ * <p>
+ * Each registered listener receives samples of one sensor, one at a time, on a thread chosen by the
+ * source.
+ */
+public interface SensorSource {
+
+  boolean hasSensor(int sensorType);
+
+  /**
+   * @param samplingPeriodUs
+   *          the requested time between samples, zero for as fast as possible
+   * @param maxReportLatencyUs
+   *          how long samples may be held back in the hardware FIFO to be delivered in batches, zero
+   *          to deliver each sample as soon as it is taken
+   * @return {@code false} if the sensor does not exist or could not be enabled
+   */
+  boolean register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs,
+      SensorSampleListener listener);
+
+  void unregister(SensorSampleListener listener);
+
+  /**
+   * Delivers the samples {@code listener} has waiting in the FIFO without waiting for the report
+   * latency.
+   */
+  void flush(SensorSampleListener listener);
+
+  /**
+   * Unregisters all listeners and stops the delivery thread.
+   */
+  void shutdown();
+}
@@ -0,0 +1,149 @@
+package org.ros.android.sensor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link SensorSource} fed by {@link #emit(int, long, float...)}, so code consuming sensor samples
+ * can run on a plain JVM.
+ * <p>
+ * Like the hardware, each listener receives at most one sample per sampling period, and with a
+ * report latency samples are held in a FIFO until the oldest one waited that long or the FIFO is
+ * full. Samples are delivered on the thread calling {@link #emit(int, long, float...)} or
+ * {@link #flush(SensorSampleListener)}.
+ */
+public class SyntheticSensorSource implements SensorSource {
+
+  private static class Sample {
+    final long timestampNanos;
+    final float[] values;
+
+    Sample(long timestampNanos, float[] values) {
+      this.timestampNanos = timestampNanos;
+      this.values = values;
+    }
+  }
+
+  private static class Channel {
+    final int sensorType;
+    final long samplingPeriodNanos;
+    final long maxReportLatencyNanos;
+    final SensorSampleListener listener;
+    final ArrayDeque<Sample> fifo = new ArrayDeque<Sample>();
+    long lastTimestampNanos = Long.MIN_VALUE;
+
+    Channel(int sensorType, int samplingPeriodUs, int maxReportLatencyUs,
+        SensorSampleListener listener) {
+      this.sensorType = sensorType;
+      samplingPeriodNanos = samplingPeriodUs * 1000L;
+      maxReportLatencyNanos = maxReportLatencyUs * 1000L;
+      this.listener = listener;
+    }
+
+    void deliver() {
+      Sample sample;
+      while ((sample = fifo.poll()) != null) {
+        listener.onSensorSample(sensorType, sample.timestampNanos, sample.values);
+      }
+    }
+  }
+
+  private final int fifoMaxEventCount;
+  private final Set<Integer> sensorTypes = new HashSet<Integer>();
+  private final List<Channel> channels = new ArrayList<Channel>();
+  private long deliveredCount;
+
+  /**
+   * @param fifoMaxEventCount
+   *          the number of samples each listener's FIFO holds, zero to deliver every sample at once
+   * @param sensorTypes
+   *          the sensors this source has
+   */
+  public SyntheticSensorSource(int fifoMaxEventCount, int... sensorTypes) {
+    Preconditions.checkArgument(fifoMaxEventCount >= 0,
+        "fifoMaxEventCount must not be negative, was %s", fifoMaxEventCount);
+    this.fifoMaxEventCount = fifoMaxEventCount;
+    for (int sensorType : sensorTypes) {
+      this.sensorTypes.add(sensorType);
+    }
+  }
+
+  @Override
+  public synchronized boolean hasSensor(int sensorType) {
+    return sensorTypes.contains(sensorType);
+  }
+
+  @Override
+  public synchronized boolean register(int sensorType, int samplingPeriodUs,
+      int maxReportLatencyUs, SensorSampleListener listener) {
+    if (!sensorTypes.contains(sensorType)) {
+      return false;
+    }
+    unregister(listener);
+    channels.add(new Channel(sensorType, samplingPeriodUs, maxReportLatencyUs, listener));
+    return true;
+  }
+
+  @Override
+  public synchronized void unregister(SensorSampleListener listener) {
+    Channel channel = find(listener);
+    if (channel != null) {
+      channels.remove(channel);
+    }
+  }
+
+  @Override
+  public synchronized void flush(SensorSampleListener listener) {
+    Channel channel = find(listener);
+    if (channel != null) {
+      deliveredCount += channel.fifo.size();
+      channel.deliver();
+    }
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    channels.clear();
+  }
+
+  /**
+   * Takes a sample of {@code sensorType}. Timestamps are expected to increase.
+   */
+  public synchronized void emit(int sensorType, long timestampNanos, float... values) {
+    for (int i = 0; i < channels.size(); i++) {
+      Channel channel = channels.get(i);
+      if (channel.sensorType != sensorType || (channel.lastTimestampNanos != Long.MIN_VALUE
+          && timestampNanos - channel.lastTimestampNanos < channel.samplingPeriodNanos)) {
+        continue;
+      }
+      channel.lastTimestampNanos = timestampNanos;
+      channel.fifo.add(new Sample(timestampNanos, values.clone()));
+      if (fifoMaxEventCount == 0 || channel.fifo.size() >= fifoMaxEventCount
+          || timestampNanos - channel.fifo.peek().timestampNanos >= channel.maxReportLatencyNanos) {
+        deliveredCount += channel.fifo.size();
+        channel.deliver();
+      }
+    }
+  }
+
+  /**
+   * @return the number of samples handed to listeners so far
+   */
+  public synchronized long getDeliveredCount() {
+    return deliveredCount;
+  }
+
+  private Channel find(SensorSampleListener listener) {
+    for (Channel channel : channels) {
+      if (channel.listener == listener) {
+        return channel;
+      }
+    }
+    return null;
+  }
+}
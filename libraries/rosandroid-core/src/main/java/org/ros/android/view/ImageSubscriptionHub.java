@@ -0,0 +1,286 @@
+package org.ros.android.view;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+import org.apache.commons.logging.Log;
+import org.ros.android.BitmapFromCompressedImage;
+import org.ros.android.LatencyHistogram;
+import org.ros.android.MessageCallable;
+import org.ros.message.MessageListener;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Subscriber;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shares one subscription and one decoded bitmap per frame among all views showing the same image
+ * topic.
+ * <p>
+ * Subscriptions are keyed by resolved topic name and message type. Each frame is decoded once on
+ * a background thread, newest message first, and handed to every attached listener as a
+ * {@link SharedBitmap} carrying one reference per listener. Bitmaps are decoded into again once
+ * all their references are released. The subscription is made on the node of one attached view
+ * and moves to another one when that view detaches; it is shut down when the last view detaches.
+ */
+public class ImageSubscriptionHub {
+
+  /** Released bitmaps kept per topic for decoding into. */
+  private static final int MAX_FREE_BITMAPS = 2;
+
+  public interface Listener {
+
+    /**
+     * Called on the decoding thread with a reference to the new frame, which the listener must
+     * release.
+     */
+    void onNewBitmap(SharedBitmap bitmap);
+  }
+
+  private final Map<String, Entry<?>> entries = new HashMap<String, Entry<?>>();
+
+  /**
+   * Attaches a listener to the images of {@code topicName}. The first attachment of a topic picks
+   * the conversion; {@code callable} is ignored for later ones. A
+   * {@link BitmapFromCompressedImage} decodes into released bitmaps of the hub rather than into
+   * its own pool; other conversions must return a new bitmap for every message.
+   */
+  public synchronized <T> Attachment attach(ConnectedNode connectedNode, String topicName,
+      String messageType, MessageCallable<Bitmap, T> callable, Listener listener) {
+    Preconditions.checkNotNull(callable);
+    Preconditions.checkNotNull(listener);
+    String key = connectedNode.resolveName(topicName) + " " + messageType;
+    @SuppressWarnings("unchecked")
+    Entry<T> entry = (Entry<T>) entries.get(key);
+    if (entry == null) {
+      entry = new Entry<T>(key, topicName, messageType, callable);
+      entries.put(key, entry);
+    }
+    Attachment attachment = new Attachment(entry, connectedNode, listener);
+    entry.attach(attachment);
+    return attachment;
+  }
+
+  /**
+   * @return the number of topics with attached listeners
+   */
+  public synchronized int getSubscriptionCount() {
+    return entries.size();
+  }
+
+  private synchronized void detach(Attachment attachment) {
+    Entry<?> entry = attachment.entry;
+    if (entry.detach(attachment)) {
+      entries.remove(entry.key);
+    }
+  }
+
+  public class Attachment {
+
+    private final Entry<?> entry;
+    private final ConnectedNode connectedNode;
+    private final Listener listener;
+    private volatile int targetWidth;
+    private volatile int targetHeight;
+    private volatile boolean detached;
+
+    private Attachment(Entry<?> entry, ConnectedNode connectedNode, Listener listener) {
+      this.entry = entry;
+      this.connectedNode = connectedNode;
+      this.listener = listener;
+    }
+
+    /**
+     * Sets the size this listener shows images at. The topic is decoded at the largest size of
+     * its listeners.
+     */
+    public void setTargetSize(int width, int height) {
+      targetWidth = width;
+      targetHeight = height;
+      entry.updateTargetSize();
+    }
+
+    /**
+     * @return the time spent decoding the frames of the topic
+     */
+    public LatencyHistogram getDecodeLatency() {
+      return entry.decodeLatency;
+    }
+
+    /**
+     * Stops delivery to the listener. References it holds must still be released.
+     */
+    public void detach() {
+      synchronized (ImageSubscriptionHub.this) {
+        if (detached) {
+          return;
+        }
+        detached = true;
+        ImageSubscriptionHub.this.detach(this);
+      }
+    }
+  }
+
+  private static final class Entry<T> implements SharedBitmap.Owner {
+
+    private final String key;
+    private final String topicName;
+    private final String messageType;
+    private final MessageCallable<Bitmap, T> callable;
+    private final List<Attachment> attachments = new CopyOnWriteArrayList<Attachment>();
+    private final AtomicReference<T> pendingMessage = new AtomicReference<T>();
+    private final AtomicBoolean decoding = new AtomicBoolean();
+    private final ArrayDeque<Bitmap> freeBitmaps = new ArrayDeque<Bitmap>();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor();
+    private final MessageListener<T> messageListener = new MessageListener<T>() {
+      @Override
+      public void onNewMessage(T message) {
+        pendingMessage.set(message);
+        scheduleDecode();
+      }
+    };
+    private Subscriber<T> subscriber;
+    private volatile ConnectedNode subscribedNode;
+
+    Entry(String key, String topicName, String messageType, MessageCallable<Bitmap, T> callable) {
+      this.key = key;
+      this.topicName = topicName;
+      this.messageType = messageType;
+      this.callable = callable;
+    }
+
+    void attach(Attachment attachment) {
+      attachments.add(attachment);
+      if (subscriber == null) {
+        subscribe(attachment.connectedNode);
+      }
+    }
+
+    /**
+     * @return {@code true} if no attachments are left and the entry was shut down
+     */
+    boolean detach(Attachment attachment) {
+      attachments.remove(attachment);
+      if (attachments.isEmpty()) {
+        subscriber.shutdown();
+        subscriber = null;
+        decoder.shutdown();
+        pendingMessage.set(null);
+        return true;
+      }
+      if (attachment.connectedNode == subscribedNode) {
+        for (Attachment remaining : attachments) {
+          if (remaining.connectedNode == subscribedNode) {
+            return false;
+          }
+        }
+        // The node may be shutting down with its view.
+        subscriber.shutdown();
+        subscribe(attachments.get(0).connectedNode);
+      }
+      updateTargetSize();
+      return false;
+    }
+
+    private void subscribe(ConnectedNode connectedNode) {
+      subscribedNode = connectedNode;
+      subscriber = connectedNode.newSubscriber(topicName, messageType);
+      subscriber.addMessageListener(messageListener);
+    }
+
+    void updateTargetSize() {
+      if (!(callable instanceof BitmapFromCompressedImage)) {
+        return;
+      }
+      int width = 0;
+      int height = 0;
+      for (Attachment attachment : attachments) {
+        width = Math.max(width, attachment.targetWidth);
+        height = Math.max(height, attachment.targetHeight);
+      }
+      ((BitmapFromCompressedImage) callable).setTargetSize(width, height);
+    }
+
+    private void scheduleDecode() {
+      if (pendingMessage.get() == null || !decoding.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        decoder.execute(decodeTask);
+      } catch (RejectedExecutionException e) {
+        // Shut down.
+        decoding.set(false);
+      }
+    }
+
+    private final Runnable decodeTask = new Runnable() {
+      @Override
+      public void run() {
+        T message = pendingMessage.getAndSet(null);
+        if (message != null) {
+          long start = System.nanoTime();
+          Bitmap bitmap = null;
+          try {
+            bitmap = decode(message);
+          } catch (RuntimeException e) {
+            getLog().error("Failed to convert image message.", e);
+          }
+          decodeLatency.record(System.nanoTime() - start);
+          if (bitmap != null) {
+            deliver(new SharedBitmap(bitmap, Entry.this));
+          }
+        }
+        decoding.set(false);
+        scheduleDecode();
+      }
+    };
+
+    private Bitmap decode(T message) {
+      if (!(callable instanceof BitmapFromCompressedImage)) {
+        return callable.call(message);
+      }
+      Bitmap reusable;
+      synchronized (freeBitmaps) {
+        reusable = freeBitmaps.poll();
+      }
+      return ((BitmapFromCompressedImage) callable).decode(
+          (sensor_msgs.CompressedImage) message, reusable);
+    }
+
+    private void deliver(SharedBitmap bitmap) {
+      // The hub's own reference keeps the bitmap from being reused while it is handed out.
+      for (Attachment attachment : attachments) {
+        // The list is a snapshot, so it may still hold attachments detached since.
+        if (attachment.detached) {
+          continue;
+        }
+        bitmap.retain();
+        attachment.listener.onNewBitmap(bitmap);
+      }
+      bitmap.release();
+    }
+
+    @Override
+    public void onReleased(SharedBitmap bitmap) {
+      synchronized (freeBitmaps) {
+        if (freeBitmaps.size() < MAX_FREE_BITMAPS) {
+          freeBitmaps.add(bitmap.getBitmap());
+        }
+      }
+    }
+
+    private Log getLog() {
+      return subscribedNode.getLog();
+    }
+  }
+}
@@ -20,6 +20,9 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.util.AttributeSet;
 import android.widget.ImageView;
+import org.apache.commons.logging.Log;
+import org.ros.android.BitmapFromCompressedImage;
+import org.ros.android.LatencyHistogram;
 import org.ros.android.MessageCallable;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
@@ -28,8 +31,23 @@ import org.ros.node.Node;
 import org.ros.node.NodeMain;
 import org.ros.node.topic.Subscriber;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Displays incoming sensor_msgs/CompressedImage messages.
+ * <p>
+ * Messages are converted to bitmaps on a background thread. Only the newest message waits for
+ * conversion, replacing any older one that was not converted yet, and the next message is only
+ * converted once the previous bitmap is shown, so a slow display drops frames instead of queuing
+ * them.
+ * <p>
+ * Views given the same {@link ImageSubscriptionHub} share the subscription and decoded bitmaps
+ * of a topic instead.
  * 
  * @author ethan.rublee@gmail.com (Ethan Rublee)
  * @author damonkohler@google.com (Damon Kohler)
@@ -40,6 +58,22 @@ public class RosImageView<T> extends ImageView implements NodeMain {
   private String messageType;
   private MessageCallable<Bitmap, T> callable;
 
+  private final AtomicReference<T> pendingMessage = new AtomicReference<T>();
+  /** Set while a message is being converted or its bitmap waits to be shown. */
+  private final AtomicBoolean converting = new AtomicBoolean();
+  private final AtomicLong coalescedFrameCount = new AtomicLong();
+  private final AtomicLong shownFrameCount = new AtomicLong();
+  private final LatencyHistogram decodeLatency = new LatencyHistogram();
+  private ExecutorService decoder;
+  private Log log;
+
+  private ImageSubscriptionHub hub;
+  private volatile ImageSubscriptionHub.Attachment attachment;
+  private volatile boolean detached;
+  private final AtomicReference<SharedBitmap> pendingBitmap = new AtomicReference<SharedBitmap>();
+  /** The shared bitmap on screen, only accessed on the UI thread. */
+  private SharedBitmap shownBitmap;
+
   public RosImageView(Context context) {
     super(context);
   }
@@ -60,8 +94,36 @@ public class RosImageView<T> extends ImageView implements NodeMain {
     this.messageType = messageType;
   }
 
+  /**
+   * Sets the conversion from messages to bitmaps. A {@link BitmapFromCompressedImage} is told the
+   * size of this view so that it can subsample large images.
+   */
   public void setMessageToBitmapCallable(MessageCallable<Bitmap, T> callable) {
     this.callable = callable;
+    updateTargetSize(getWidth(), getHeight());
+  }
+
+  /**
+   * Shares the subscription and decoding of the topic with other views using {@code hub}. Must be
+   * called before the view is started.
+   */
+  public void setImageSubscriptionHub(ImageSubscriptionHub hub) {
+    this.hub = hub;
+  }
+
+  @Override
+  protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+    super.onSizeChanged(width, height, oldWidth, oldHeight);
+    updateTargetSize(width, height);
+  }
+
+  private void updateTargetSize(int width, int height) {
+    ImageSubscriptionHub.Attachment currentAttachment = attachment;
+    if (currentAttachment != null) {
+      currentAttachment.setTargetSize(width, height);
+    } else if (callable instanceof BitmapFromCompressedImage) {
+      ((BitmapFromCompressedImage) callable).setTargetSize(width, height);
+    }
   }
 
   @Override
@@ -71,23 +133,163 @@ public class RosImageView<T> extends ImageView implements NodeMain {
 
   @Override
   public void onStart(ConnectedNode connectedNode) {
+    log = connectedNode.getLog();
+    if (hub != null) {
+      detached = false;
+      attachment = hub.attach(connectedNode, topicName, messageType, callable,
+          new ImageSubscriptionHub.Listener() {
+            @Override
+            public void onNewBitmap(SharedBitmap bitmap) {
+              onNewSharedBitmap(bitmap);
+            }
+          });
+      updateTargetSize(getWidth(), getHeight());
+      return;
+    }
+    decoder = Executors.newSingleThreadExecutor();
     Subscriber<T> subscriber = connectedNode.newSubscriber(topicName, messageType);
     subscriber.addMessageListener(new MessageListener<T>() {
       @Override
-      public void onNewMessage(final T message) {
-        post(new Runnable() {
-          @Override
-          public void run() {
-            setImageBitmap(callable.call(message));
-          }
-        });
-        postInvalidate();
+      public void onNewMessage(T message) {
+        if (pendingMessage.getAndSet(message) != null) {
+          coalescedFrameCount.incrementAndGet();
+        }
+        scheduleDecode();
       }
     });
   }
 
+  private void scheduleDecode() {
+    if (pendingMessage.get() == null || !converting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      decoder.execute(decodeTask);
+    } catch (RejectedExecutionException e) {
+      // Shut down.
+      converting.set(false);
+    }
+  }
+
+  private final Runnable decodeTask = new Runnable() {
+    @Override
+    public void run() {
+      T message = pendingMessage.getAndSet(null);
+      Bitmap bitmap = null;
+      if (message != null) {
+        long start = System.nanoTime();
+        try {
+          bitmap = callable.call(message);
+        } catch (RuntimeException e) {
+          log.error("Failed to convert image message.", e);
+        }
+        decodeLatency.record(System.nanoTime() - start);
+      }
+      if (bitmap == null) {
+        converting.set(false);
+        scheduleDecode();
+        return;
+      }
+      final Bitmap decoded = bitmap;
+      boolean posted = post(new Runnable() {
+        @Override
+        public void run() {
+          setImageBitmap(decoded);
+          shownFrameCount.incrementAndGet();
+          converting.set(false);
+          scheduleDecode();
+        }
+      });
+      if (!posted) {
+        converting.set(false);
+      }
+    }
+  };
+
+  private void onNewSharedBitmap(SharedBitmap bitmap) {
+    // A delivery racing with onShutdown must not outlive its cleanup.
+    if (detached) {
+      bitmap.release();
+      return;
+    }
+    SharedBitmap replaced = pendingBitmap.getAndSet(bitmap);
+    if (replaced != null) {
+      replaced.release();
+      coalescedFrameCount.incrementAndGet();
+      return;
+    }
+    if (!post(showSharedBitmapTask)) {
+      SharedBitmap unshown = pendingBitmap.getAndSet(null);
+      if (unshown != null) {
+        unshown.release();
+      }
+    }
+  }
+
+  private final Runnable showSharedBitmapTask = new Runnable() {
+    @Override
+    public void run() {
+      SharedBitmap bitmap = pendingBitmap.getAndSet(null);
+      if (bitmap == null) {
+        return;
+      }
+      if (detached) {
+        bitmap.release();
+        return;
+      }
+      setImageBitmap(bitmap.getBitmap());
+      if (shownBitmap != null) {
+        shownBitmap.release();
+      }
+      shownBitmap = bitmap;
+      shownFrameCount.incrementAndGet();
+    }
+  };
+
+  /**
+   * @return the number of messages replaced by a newer one before they were converted
+   */
+  public long getCoalescedFrameCount() {
+    return coalescedFrameCount.get();
+  }
+
+  public long getShownFrameCount() {
+    return shownFrameCount.get();
+  }
+
+  /**
+   * @return the time spent converting messages to bitmaps
+   */
+  public LatencyHistogram getDecodeLatency() {
+    ImageSubscriptionHub.Attachment currentAttachment = attachment;
+    return currentAttachment != null ? currentAttachment.getDecodeLatency() : decodeLatency;
+  }
+
   @Override
   public void onShutdown(Node node) {
+    if (decoder != null) {
+      decoder.shutdown();
+    }
+    pendingMessage.set(null);
+    if (attachment != null) {
+      detached = true;
+      attachment.detach();
+      post(new Runnable() {
+        @Override
+        public void run() {
+          // Hand the shared bitmaps back so other views can reuse them.
+          setImageBitmap(null);
+          if (shownBitmap != null) {
+            shownBitmap.release();
+            shownBitmap = null;
+          }
+          SharedBitmap unshown = pendingBitmap.getAndSet(null);
+          if (unshown != null) {
+            unshown.release();
+          }
+        }
+      });
+    }
   }
 
   @Override
@@ -16,10 +16,15 @@
 
 package org.ros.android.view;
 
+import com.google.common.base.Preconditions;
+
 import android.content.Context;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.widget.TextView;
+import org.apache.commons.logging.Log;
 import org.ros.android.MessageCallable;
+import org.ros.android.MessageFormatter;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
@@ -27,14 +32,38 @@ import org.ros.node.Node;
 import org.ros.node.NodeMain;
 import org.ros.node.topic.Subscriber;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
+ * Displays incoming messages as text.
+ * <p>
+ * Messages are formatted on a background thread into a reused {@link StringBuilder}. Only the
+ * newest message is formatted, and the next one only after the previous text is shown, at most
+ * once per display frame and at most at the rate set with {@link #setMaxUpdateRate(double)}.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class RosTextView<T> extends TextView implements NodeMain {
 
   private String topicName;
   private String messageType;
-  private MessageCallable<String, T> callable;
+  private volatile MessageFormatter<T> formatter;
+  private volatile long minUpdatePeriodNanos;
+
+  private final AtomicReference<T> pendingMessage = new AtomicReference<T>();
+  /** Set while a message is being formatted or its text waits to be shown. */
+  private final AtomicBoolean updating = new AtomicBoolean();
+  private final AtomicLong coalescedMessageCount = new AtomicLong();
+  private final StringBuilder builder = new StringBuilder();
+  private long nextUpdateNanos;
+  private ScheduledExecutorService executor;
+  private Log log;
 
   public RosTextView(Context context) {
     super(context);
@@ -56,8 +85,36 @@ public class RosTextView<T> extends TextView implements NodeMain {
     this.messageType = messageType;
   }
 
-  public void setMessageToStringCallable(MessageCallable<String, T> callable) {
-    this.callable = callable;
+  public void setMessageToStringCallable(final MessageCallable<String, T> callable) {
+    setMessageFormatter(new MessageFormatter<T>() {
+      @Override
+      public void format(T message, StringBuilder builder) {
+        builder.append(callable.call(message));
+      }
+    });
+  }
+
+  /**
+   * Sets how messages are formatted. Without a formatter, {@code toString()} is shown.
+   */
+  public void setMessageFormatter(MessageFormatter<T> formatter) {
+    this.formatter = formatter;
+  }
+
+  /**
+   * Caps how often the text is updated. Zero, the default, updates once per display frame when
+   * messages arrive that fast.
+   */
+  public void setMaxUpdateRate(double hertz) {
+    Preconditions.checkArgument(hertz >= 0, "hertz must not be negative, was %s", hertz);
+    minUpdatePeriodNanos = hertz > 0 ? (long) (1e9 / hertz) : 0;
+  }
+
+  /**
+   * @return the number of messages replaced by a newer one before they were shown
+   */
+  public long getCoalescedMessageCount() {
+    return coalescedMessageCount.get();
   }
 
   @Override
@@ -67,32 +124,83 @@ public class RosTextView<T> extends TextView implements NodeMain {
 
   @Override
   public void onStart(ConnectedNode connectedNode) {
+    log = connectedNode.getLog();
+    executor = Executors.newSingleThreadScheduledExecutor();
     Subscriber<T> subscriber = connectedNode.newSubscriber(topicName, messageType);
     subscriber.addMessageListener(new MessageListener<T>() {
       @Override
-      public void onNewMessage(final T message) {
-        if (callable != null) {
-          post(new Runnable() {
-            @Override
-            public void run() {
-              setText(callable.call(message));
-            }
-          });
-        } else {
-          post(new Runnable() {
-            @Override
-            public void run() {
-              setText(message.toString());
-            }
-          });
+      public void onNewMessage(T message) {
+        if (pendingMessage.getAndSet(message) != null) {
+          coalescedMessageCount.incrementAndGet();
         }
-        postInvalidate();
+        scheduleUpdate();
       }
     });
   }
 
+  private void scheduleUpdate() {
+    if (pendingMessage.get() == null || !updating.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      // Only read and written while updating is set.
+      long delay = nextUpdateNanos - System.nanoTime();
+      executor.schedule(formatTask, Math.max(0, delay), TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // Shut down.
+      updating.set(false);
+    }
+  }
+
+  private final Runnable formatTask = new Runnable() {
+    @Override
+    public void run() {
+      T message = pendingMessage.getAndSet(null);
+      String text = null;
+      if (message != null) {
+        nextUpdateNanos = System.nanoTime() + minUpdatePeriodNanos;
+        builder.setLength(0);
+        try {
+          MessageFormatter<T> currentFormatter = formatter;
+          if (currentFormatter != null) {
+            currentFormatter.format(message, builder);
+          } else {
+            builder.append(message);
+          }
+          text = builder.toString();
+        } catch (RuntimeException e) {
+          log.error("Failed to format message.", e);
+        }
+      }
+      if (text == null || !postText(text)) {
+        updating.set(false);
+        scheduleUpdate();
+      }
+    }
+  };
+
+  private boolean postText(final String text) {
+    Runnable update = new Runnable() {
+      @Override
+      public void run() {
+        setText(text);
+        updating.set(false);
+        scheduleUpdate();
+      }
+    };
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      postOnAnimation(update);
+      return true;
+    }
+    return post(update);
+  }
+
   @Override
   public void onShutdown(Node node) {
+    if (executor != null) {
+      executor.shutdown();
+    }
+    pendingMessage.set(null);
   }
 
   @Override
@@ -0,0 +1,48 @@
+package org.ros.android.view;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted bitmap handed out by {@link ImageSubscriptionHub}. Every holder calls
+ * {@link #release()} once it no longer shows the bitmap; the bitmap is reused for later frames
+ * after the last release.
+ */
+public class SharedBitmap {
+
+  interface Owner {
+    void onReleased(SharedBitmap bitmap);
+  }
+
+  private final Bitmap bitmap;
+  private final Owner owner;
+  private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+  SharedBitmap(Bitmap bitmap, Owner owner) {
+    this.bitmap = bitmap;
+    this.owner = owner;
+  }
+
+  public Bitmap getBitmap() {
+    return bitmap;
+  }
+
+  /**
+   * Adds a reference, which must be released separately.
+   */
+  public void retain() {
+    int count = referenceCount.getAndIncrement();
+    Preconditions.checkState(count > 0, "The bitmap was already released.");
+  }
+
+  public void release() {
+    int count = referenceCount.decrementAndGet();
+    Preconditions.checkState(count >= 0, "The bitmap was released too often.");
+    if (count == 0) {
+      owner.onReleased(this);
+    }
+  }
+}
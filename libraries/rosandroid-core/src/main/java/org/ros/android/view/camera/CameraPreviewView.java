@@ -41,24 +41,58 @@ import java.util.List;
 public class CameraPreviewView extends ViewGroup {
 
   private final static double ASPECT_TOLERANCE = 0.1;
+  private final static int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
 
   private SurfaceHolder surfaceHolder;
   private Camera camera;
   private Size previewSize;
-  private byte[] previewBuffer;
-  private RawImageListener rawImageListener;
+  private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+  private byte[][] previewBuffers;
+  private int queuedPreviewBuffers;
+  private long starvationCount;
+  private volatile RawImageListener rawImageListener;
   private BufferingPreviewCallback bufferingPreviewCallback;
 
-  private final class BufferingPreviewCallback implements PreviewCallback {
+  private final class BufferingPreviewCallback implements PreviewCallback, PreviewBufferReleaser {
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
       Preconditions.checkArgument(camera == CameraPreviewView.this.camera);
-      Preconditions.checkArgument(data == previewBuffer);
-      if (rawImageListener != null) {
-        rawImageListener.onNewRawImage(data, previewSize);
+      Preconditions.checkArgument(isPreviewBuffer(data));
+      synchronized (this) {
+        queuedPreviewBuffers--;
+        if (queuedPreviewBuffers == 0) {
+          // The driver drops every frame until a buffer is released.
+          starvationCount++;
+        }
+      }
+      RawImageListener listener = rawImageListener;
+      if (listener != null) {
+        listener.onNewRawImage(data, previewSize, this);
+      } else {
+        release(data);
+      }
+    }
+
+    @Override
+    public synchronized void release(byte[] buffer) {
+      // Buffers of a released camera or of a previous preview size are dropped.
+      if (camera != null && isPreviewBuffer(buffer)) {
+        camera.addCallbackBuffer(buffer);
+        queuedPreviewBuffers++;
+      }
+    }
+  }
+
+  private boolean isPreviewBuffer(byte[] data) {
+    byte[][] buffers = previewBuffers;
+    if (buffers != null) {
+      for (byte[] buffer : buffers) {
+        if (buffer == data) {
+          return true;
+        }
       }
-      camera.addCallbackBuffer(previewBuffer);
     }
+    return false;
   }
 
   private final class SurfaceHolderCallback implements SurfaceHolder.Callback {
@@ -111,10 +145,13 @@ public class CameraPreviewView extends ViewGroup {
     if (camera == null) {
       return;
     }
-    camera.setPreviewCallbackWithBuffer(null);
-    camera.stopPreview();
-    camera.release();
-    camera = null;
+    synchronized (bufferingPreviewCallback) {
+      camera.setPreviewCallbackWithBuffer(null);
+      camera.stopPreview();
+      camera.release();
+      camera = null;
+      previewBuffers = null;
+    }
   }
 
   public void setRawImageListener(RawImageListener rawImageListener) {
@@ -125,6 +162,30 @@ public class CameraPreviewView extends ViewGroup {
     return previewSize;
   }
 
+  /**
+   * Sets the number of preview buffers rotated through the camera. A listener may hold all but
+   * one of them without the camera dropping frames. Takes effect on the next
+   * {@link #setCamera(Camera)}.
+   */
+  public void setPreviewBufferCount(int previewBufferCount) {
+    Preconditions.checkArgument(previewBufferCount > 0);
+    this.previewBufferCount = previewBufferCount;
+  }
+
+  public int getPreviewBufferCount() {
+    return previewBufferCount;
+  }
+
+  /**
+   * @return how often the camera delivered its last queued buffer, after which it drops frames
+   *         until the listener releases one
+   */
+  public long getStarvationCount() {
+    synchronized (bufferingPreviewCallback) {
+      return starvationCount;
+    }
+  }
+
   public void setCamera(Camera camera) {
     Preconditions.checkNotNull(camera);
     this.camera = camera;
@@ -184,8 +245,14 @@ public class CameraPreviewView extends ViewGroup {
   private void setupBufferingPreviewCallback() {
     int format = camera.getParameters().getPreviewFormat();
     int bits_per_pixel = ImageFormat.getBitsPerPixel(format);
-    previewBuffer = new byte[previewSize.height * previewSize.width * bits_per_pixel / 8];
-    camera.addCallbackBuffer(previewBuffer);
+    synchronized (bufferingPreviewCallback) {
+      previewBuffers = new byte[previewBufferCount][];
+      for (int i = 0; i < previewBufferCount; i++) {
+        previewBuffers[i] = new byte[previewSize.height * previewSize.width * bits_per_pixel / 8];
+        camera.addCallbackBuffer(previewBuffers[i]);
+      }
+      queuedPreviewBuffers = previewBufferCount;
+    }
     camera.setPreviewCallbackWithBuffer(bufferingPreviewCallback);
   }
 
@@ -18,76 +18,175 @@ package org.ros.android.view.camera;
 
 import com.google.common.base.Preconditions;
 
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.hardware.Camera.Size;
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.internal.message.MessageBuffers;
+import org.ros.android.image.BandwidthController;
+import org.ros.android.image.ByteArrayOutputBuffer;
+import org.ros.android.image.ImageEncoder;
+import org.ros.android.image.Nv21Pyramid;
+import org.ros.android.image.OutputBufferPool;
+import org.ros.android.image.PlatformJpegImageEncoder;
+import org.ros.exception.RosRuntimeException;
 import org.ros.message.Time;
 import org.ros.namespace.NameResolver;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
- * Publishes preview frames.
+ * Publishes preview frames. Frames are encoded on a thread of their own, so the camera thread is
+ * never blocked and the preview buffers bound how many frames wait for the encoder.
  * 
  * @author damonkohler@google.com (Damon Kohler)
  */
 class CompressedImagePublisher implements RawImageListener {
 
+  private static final int DEFAULT_QUALITY = 20;
+  private static final int INITIAL_OUTPUT_CAPACITY = 64 * 1024;
+  private static final long CAMERA_INFO_PERIOD_NANOS = 1000000000L;
+
   private final ConnectedNode connectedNode;
   private final Publisher<sensor_msgs.CompressedImage> imagePublisher;
   private final Publisher<sensor_msgs.CameraInfo> cameraInfoPublisher;
+  private final BandwidthController bandwidthController;
+
+  private final ImageEncoder imageEncoder;
+  private final Nv21Pyramid pyramid;
+  private final OutputBufferPool outputBufferPool;
+  private final ExecutorService executor;
 
-  private byte[] rawImageBuffer;
-  private Size rawImageSize;
-  private YuvImage yuvImage;
-  private Rect rect;
-  private ChannelBufferOutputStream stream;
+  private int cameraInfoWidth;
+  private int cameraInfoHeight;
+  private String cameraInfoFrameId;
+  private long cameraInfoPublishedNanos;
 
   public CompressedImagePublisher(ConnectedNode connectedNode) {
+    this(connectedNode, null, null);
+  }
+
+  /**
+   * @param bandwidthController
+   *          chooses quality and resolution per frame, or {@code null} to encode full frames at a
+   *          fixed quality
+   * @param imageEncoder
+   *          a compressing encoder, or {@code null} for the platform JPEG encoder
+   */
+  public CompressedImagePublisher(ConnectedNode connectedNode,
+      BandwidthController bandwidthController, ImageEncoder imageEncoder) {
+    Preconditions.checkArgument(imageEncoder == null || imageEncoder.isCompressed());
     this.connectedNode = connectedNode;
+    this.bandwidthController = bandwidthController;
+    this.imageEncoder = imageEncoder != null ? imageEncoder : new PlatformJpegImageEncoder();
     NameResolver resolver = connectedNode.getResolver().newChild("camera");
     imagePublisher =
         connectedNode.newPublisher(resolver.resolve("image/compressed"),
             sensor_msgs.CompressedImage._TYPE);
     cameraInfoPublisher =
         connectedNode.newPublisher(resolver.resolve("camera_info"), sensor_msgs.CameraInfo._TYPE);
-    stream = new ChannelBufferOutputStream(MessageBuffers.dynamicBuffer());
+    cameraInfoPublisher.setLatchMode(true);
+    pyramid = new Nv21Pyramid();
+    outputBufferPool = new OutputBufferPool(INITIAL_OUTPUT_CAPACITY);
+    executor = Executors.newSingleThreadExecutor();
   }
 
   @Override
-  public void onNewRawImage(byte[] data, Size size) {
+  public void onNewRawImage(final byte[] data, final Size size,
+      final PreviewBufferReleaser releaser) {
     Preconditions.checkNotNull(data);
     Preconditions.checkNotNull(size);
-    if (data != rawImageBuffer || !size.equals(rawImageSize)) {
-      rawImageBuffer = data;
-      rawImageSize = size;
-      yuvImage = new YuvImage(rawImageBuffer, ImageFormat.NV21, size.width, size.height, null);
-      rect = new Rect(0, 0, size.width, size.height);
+    final Time captureTime = connectedNode.getCurrentTime();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            publish(data, size, captureTime);
+          } catch (RuntimeException e) {
+            connectedNode.getLog().error("Failed to publish a preview frame.", e);
+          } finally {
+            releaser.release(data);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Shut down while the camera was still delivering.
+      releaser.release(data);
+    }
+  }
+
+  /**
+   * Stops the encoder thread. Frames already handed over are still published.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private void publish(byte[] data, Size size, Time currentTime) {
+    int quality = DEFAULT_QUALITY;
+    int scaleShift = 0;
+    if (bandwidthController != null) {
+      quality = bandwidthController.getQuality();
+      scaleShift = bandwidthController.getScaleShift();
     }
 
-    Time currentTime = connectedNode.getCurrentTime();
     String frameId = "camera";
 
     sensor_msgs.CompressedImage image = imagePublisher.newMessage();
-    image.setFormat("jpeg");
+    image.setFormat(imageEncoder.getFormat());
     image.getHeader().setStamp(currentTime);
     image.getHeader().setFrameId(frameId);
 
-    Preconditions.checkState(yuvImage.compressToJpeg(rect, 20, stream));
-    image.setData(stream.buffer().copy());
-    stream.buffer().clear();
+    long encodeStart = System.nanoTime();
+    pyramid.build(data, size.width, size.height, scaleShift);
+    int level = pyramid.clampLevel(scaleShift);
+    int width = pyramid.getWidth(level);
+    int height = pyramid.getHeight(level);
+    // The message references the pooled buffer, which is not rewritten before rosjava has
+    // serialized the message.
+    ByteArrayOutputBuffer output = outputBufferPool.acquire();
+    try {
+      imageEncoder.encode(pyramid.getLevel(level), width, height, quality, output);
+    } catch (IOException e) {
+      throw new RosRuntimeException(e);
+    }
+    long encodeNanos = System.nanoTime() - encodeStart;
+    int encodedBytes = output.size();
+    image.setData(output.toChannelBuffer());
 
     imagePublisher.publish(image);
 
+    publishCameraInfo(width, height, frameId, currentTime);
+
+    if (bandwidthController != null) {
+      bandwidthController.onFramePublished(encodedBytes, encodeNanos, System.nanoTime());
+    }
+  }
+
+  /**
+   * Publishes the camera info when the size or frame changes. It is latched, so otherwise it is
+   * only republished once per {@link #CAMERA_INFO_PERIOD_NANOS} to keep its stamp recent. rosjava
+   * serializes the latched message again for every new subscriber, so each publication is a fresh
+   * message that is never modified afterwards.
+   */
+  private void publishCameraInfo(int width, int height, String frameId, Time currentTime) {
+    long now = System.nanoTime();
+    boolean changed = cameraInfoFrameId == null || cameraInfoWidth != width
+        || cameraInfoHeight != height || !cameraInfoFrameId.equals(frameId);
+    if (!changed && now - cameraInfoPublishedNanos < CAMERA_INFO_PERIOD_NANOS) {
+      return;
+    }
     sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
     cameraInfo.getHeader().setStamp(currentTime);
     cameraInfo.getHeader().setFrameId(frameId);
-
-    cameraInfo.setWidth(size.width);
-    cameraInfo.setHeight(size.height);
+    cameraInfo.setWidth(width);
+    cameraInfo.setHeight(height);
     cameraInfoPublisher.publish(cameraInfo);
+    cameraInfoWidth = width;
+    cameraInfoHeight = height;
+    cameraInfoFrameId = frameId;
+    cameraInfoPublishedNanos = now;
   }
-}
\ No newline at end of file
+}
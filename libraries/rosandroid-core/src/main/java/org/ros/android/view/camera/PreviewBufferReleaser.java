@@ -0,0 +1,14 @@
+package org.ros.android.view.camera;
+
+/**
+ * Gives preview buffers back to the camera once a {@link RawImageListener} is done with them.
+ */
+interface PreviewBufferReleaser {
+
+  /**
+   * Returns {@code buffer} to the camera. Safe to call from any thread, also after the camera was
+   * released.
+   */
+  void release(byte[] buffer);
+
+}
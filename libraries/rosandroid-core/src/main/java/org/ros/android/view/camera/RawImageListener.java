@@ -4,6 +4,12 @@ import android.hardware.Camera.Size;
 
 interface RawImageListener {
 
-  void onNewRawImage(byte[] data, Size size);
-
-}
\ No newline at end of file
+  /**
+   * Called on the camera thread for every preview frame. {@code data} belongs to the listener
+   * until it passes it to {@code releaser}, which may happen later and on any thread. The camera
+   * can only fill as many frames as there are unreleased preview buffers, so slow listeners should
+   * hand the frame to another thread instead of blocking this call.
+   */
+  void onNewRawImage(byte[] data, Size size, PreviewBufferReleaser releaser);
+
+}
@@ -18,6 +18,8 @@ package org.ros.android.view.camera;
 
 import android.content.Context;
 import android.util.AttributeSet;
+import org.ros.android.image.BandwidthController;
+import org.ros.android.image.ImageEncoder;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
@@ -30,6 +32,10 @@ import org.ros.node.NodeMain;
  */
 public class RosCameraPreviewView extends CameraPreviewView implements NodeMain {
 
+  private BandwidthController bandwidthController;
+  private ImageEncoder imageEncoder;
+  private CompressedImagePublisher compressedImagePublisher;
+
   public RosCameraPreviewView(Context context) {
     super(context);
   }
@@ -42,6 +48,22 @@ public class RosCameraPreviewView extends CameraPreviewView implements NodeMain
     super(context, attrs, defStyle);
   }
 
+  /**
+   * Lets {@code bandwidthController} pick JPEG quality and resolution for published frames. Must be
+   * called before the node is started.
+   */
+  public void setBandwidthController(BandwidthController bandwidthController) {
+    this.bandwidthController = bandwidthController;
+  }
+
+  /**
+   * Replaces the platform JPEG encoder, e.g. with one from
+   * {@link org.ros.android.image.ImageEncoders}. Must be called before the node is started.
+   */
+  public void setImageEncoder(ImageEncoder imageEncoder) {
+    this.imageEncoder = imageEncoder;
+  }
+
   @Override
   public GraphName getDefaultNodeName() {
     return GraphName.of("ros_camera_preview_view");
@@ -49,11 +71,18 @@ public class RosCameraPreviewView extends CameraPreviewView implements NodeMain
 
   @Override
   public void onStart(ConnectedNode connectedNode) {
-    setRawImageListener(new CompressedImagePublisher(connectedNode));
+    compressedImagePublisher =
+        new CompressedImagePublisher(connectedNode, bandwidthController, imageEncoder);
+    setRawImageListener(compressedImagePublisher);
   }
 
   @Override
   public void onShutdown(Node node) {
+    setRawImageListener(null);
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.shutdown();
+      compressedImagePublisher = null;
+    }
   }
 
   @Override
@@ -9,8 +9,22 @@ import com.otaliastudios.cameraview.frame.Frame;
 import com.otaliastudios.cameraview.frame.FrameProcessor;
 import com.otaliastudios.cameraview.size.Size;
 
-import org.jboss.netty.buffer.LittleEndianHeapChannelBuffer;
+import org.ros.android.DiagnosticStatusBuilder;
+import org.ros.android.LatencyHistogram;
+import org.ros.android.image.BandwidthController;
+import org.ros.android.image.ByteArrayOutputBuffer;
+import org.ros.android.image.CaptureClock;
+import org.ros.android.image.FrameChangeDetector;
+import org.ros.android.image.FramePipeline;
+import org.ros.android.image.FrameSlot;
+import org.ros.android.image.ImageEncoder;
+import org.ros.android.image.ImageEncoders;
+import org.ros.android.image.Nv21Pyramid;
+import org.ros.android.image.OutputBufferPool;
+import org.ros.android.image.RawImageEncoder;
 import org.ros.concurrent.CancellableLoop;
+import org.ros.message.Duration;
+import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
@@ -19,21 +33,117 @@ import org.ros.node.topic.Publisher;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
+import diagnostic_msgs.DiagnosticArray;
 import sensor_msgs.CompressedImage;
+import sensor_msgs.Image;
 import std_msgs.Header;
 
 public class ImagePublisherNode extends AbstractNodeMain {
 
+    /**
+     * What the node publishes for each frame. {@link #COMPRESSED} publishes
+     * sensor_msgs/CompressedImage from the encoder chosen with {@link #setImageEncoder} on
+     * image/compressed, the others publish uncompressed sensor_msgs/Image on image.
+     */
+    public enum OutputMode {
+        COMPRESSED(null, 0),
+        /** The Y plane of the captured frame, handed to the message without copying. */
+        MONO8("mono8", 1),
+        /** The captured frame as is, handed to the message without copying. */
+        NV21("nv21", 1),
+        RGB8("rgb8", 3);
+
+        private final String encoding;
+        private final int bytesPerPixel;
+
+        OutputMode(String encoding, int bytesPerPixel) {
+            this.encoding = encoding;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    /**
+     * A downscaled copy of the stream on its own topic, rate and quality.
+     */
+    private static final class PyramidStream {
+        private final int level;
+        private final int quality;
+        private final long minPeriodNanos;
+        private final AtomicLong nextDueNanos = new AtomicLong();
+        private Publisher<CompressedImage> publisher;
+        private OutputBufferPool bufferPool;
+
+        private PyramidStream(int level, double maxRate, int quality) {
+            this.level = level;
+            this.quality = quality;
+            this.minPeriodNanos = maxRate > 0 ? (long) (1e9 / maxRate) : 0;
+        }
+
+        /**
+         * Reserves the current period for one frame. Safe to call from parallel encoders.
+         */
+        private boolean claim(long nowNanos) {
+            while (true) {
+                long due = nextDueNanos.get();
+                if (nowNanos - due < 0) {
+                    return false;
+                }
+                if (nextDueNanos.compareAndSet(due, nowNanos + minPeriodNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final int JPEG_QUALITY = 100;
+    private static final int MIN_JPEG_QUALITY = 30;
+    private static final long DIAGNOSTICS_PERIOD_MILLIS = 1000;
+    private static final int INITIAL_OUTPUT_CAPACITY = 64 * 1024;
+    private static final int INITIAL_PYRAMID_CAPACITY = 16 * 1024;
 
     private ConnectedNode connectedNode;
 
     private Publisher<CompressedImage> imagePublisher;
+    private Publisher<Image> rawImagePublisher;
     private OnFrameIdChangeListener cameraFrameIdChangeListener;
-    private int sequenceNumber = 1;
 
     private String cameraFrameId;
 
+    private int frameSlots = 4;
+    private int encoderThreads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private FramePipeline.DropPolicy dropPolicy = FramePipeline.DropPolicy.DROP_OLDEST;
+    private OutputMode outputMode = OutputMode.COMPRESSED;
+    private ImageEncoders.Type encoderType = ImageEncoders.Type.PLATFORM_JPEG;
+    private ImageEncoders.Options encoderOptions = new ImageEncoders.Options();
+    // Copied from the settings in onStart, before the pipeline threads start, so a setter called
+    // while running cannot change what the running pipeline produces.
+    private OutputMode activeOutputMode;
+    private String compressedFormat;
+    private final List<ImageEncoder> imageEncoders = new CopyOnWriteArrayList<>();
+    private OutputBufferPool outputBufferPool;
+    private volatile FramePipeline pipeline;
+
+    private double targetBytesPerSecond;
+    private double targetFramesPerSecond;
+    private volatile BandwidthController bandwidthController;
+
+    private final List<PyramidStream> pyramidStreams = new ArrayList<>();
+
+    private final CaptureClock captureClock = new CaptureClock();
+    private final LatencyHistogram captureToEncodeLatency = new LatencyHistogram();
+    private final LatencyHistogram encodeLatency = new LatencyHistogram();
+    private final LatencyHistogram encodeToPublishLatency = new LatencyHistogram();
+    private final LatencyHistogram captureToPublishLatency = new LatencyHistogram();
+
+    private double changeThreshold;
+    private long keyframeIntervalMillis;
+    private volatile FrameChangeDetector changeDetector;
+
     public ImagePublisherNode(){
         cameraFrameIdChangeListener = new OnFrameIdChangeListener() {
             @Override
@@ -43,51 +153,209 @@ public class ImagePublisherNode extends AbstractNodeMain {
         };
     }
 
+    /**
+     * Only copies the frame into the pipeline, so the camera gets its buffer back right away and
+     * slow encodes never stall frame delivery. Frames the change detector suppresses are not even
+     * copied.
+     */
     public FrameProcessor frameProcessor = new FrameProcessor() {
         @Override
         public void process(@NonNull Frame frame) {
-            Log.d("ImageNode","FrameCallback");
-            long time = frame.getTime();
+            FramePipeline pipeline = ImagePublisherNode.this.pipeline;
             Size size = frame.getSize();
-            int format = frame.getFormat();
+            if (pipeline == null) {
+                return;
+            }
+            if (size == null) {
+                Log.d("ImageNode", "多分Sizeがnull");
+                return;
+            }
+            byte[] data = frame.getData();
+            int length = Math.min(data.length, size.getWidth() * size.getHeight() * 3 / 2);
+            FrameChangeDetector detector = changeDetector;
+            long now = System.nanoTime();
+            if (detector != null && !detector.isChanged(data, size.getWidth(), size.getHeight(), now)) {
+                pipeline.skip();
+                return;
+            }
+            long captureNanos = captureClock.toNanoTime(frame.getTime());
+            // A dropped frame must not become the reference, or the change it shows is never published.
+            if (pipeline.offer(data, length, size.getWidth(), size.getHeight(), captureNanos) && detector != null) {
+                detector.accept(now);
+            }
+        }
+    };
 
-            try{
-                if(connectedNode != null && size != null){
+    private final FramePipeline.EncoderFactory encoderFactory = new FramePipeline.EncoderFactory() {
+        @Override
+        public FramePipeline.Encoder newEncoder() {
+            return new FramePipeline.Encoder() {
+                private final ImageEncoder compressedEncoder = register(ImageEncoders.newEncoder(encoderType, encoderOptions));
+                private final ImageEncoder rgbEncoder = register(new RawImageEncoder(RawImageEncoder.RGB8));
+                private final Nv21Pyramid pyramid = new Nv21Pyramid();
+                private final boolean[] duePyramidStreams = new boolean[pyramidStreams.size()];
 
-                    int receivedImageHeight = size.getHeight();
-                    int receivedImageWidth = size.getWidth();
+                @Override
+                public void encode(FrameSlot slot) throws Exception {
+                    // Level 0 is the slot itself, so the pyramid has to be encoded before a raw
+                    // mode moves the frame out of the slot.
+                    buildPyramid(slot);
+                    for (int i = 0; i < duePyramidStreams.length; i++) {
+                        if (duePyramidStreams[i]) {
+                            PyramidStream stream = pyramidStreams.get(i);
+                            ByteArrayOutputBuffer output = stream.bufferPool.acquire();
+                            encode(compressedEncoder, pyramid.clampLevel(stream.level), stream.quality, output);
+                            slot.setOutput(i + 1, output);
+                        }
+                    }
 
-                    Header header = connectedNode.getTopicMessageFactory().newFromType(Header._TYPE);
-                    CompressedImage imageMessage = imagePublisher.newMessage();
+                    switch (activeOutputMode) {
+                        case MONO8:
+                            slot.moveDataTo(outputBufferPool.acquire(), slot.getWidth() * slot.getHeight());
+                            break;
+                        case NV21:
+                            slot.moveDataTo(outputBufferPool.acquire(), slot.getLength());
+                            break;
+                        case RGB8:
+                            ByteArrayOutputBuffer rgb = outputBufferPool.acquire();
+                            encode(rgbEncoder, 0, 0, rgb);
+                            slot.setOutput(rgb);
+                            break;
+                        default:
+                            int quality = JPEG_QUALITY;
+                            int scaleShift = 0;
+                            BandwidthController controller = bandwidthController;
+                            if (controller != null) {
+                                quality = controller.getQuality();
+                                scaleShift = controller.getScaleShift();
+                            }
+                            ByteArrayOutputBuffer output = outputBufferPool.acquire();
+                            encode(compressedEncoder, pyramid.clampLevel(scaleShift), quality, output);
+                            slot.setOutput(output);
+                    }
+                }
 
-                    header.setStamp(connectedNode.getCurrentTime());
-                    header.setFrameId(cameraFrameId);
-                    header.setSeq(sequenceNumber);
-                    imageMessage.setHeader(header);
-                    imageMessage.setFormat("jpeg");
-                    imageMessage.setData(new LittleEndianHeapChannelBuffer( ImageUtil.nv21ToJpeg((byte[]) frame.getData(),receivedImageWidth,receivedImageHeight,null)));
+                /**
+                 * Builds the pyramid once, as deep as the bandwidth controller and the pyramid
+                 * streams due for this frame need it.
+                 */
+                private void buildPyramid(FrameSlot slot) {
+                    int depth = 0;
+                    BandwidthController controller = bandwidthController;
+                    if (controller != null) {
+                        depth = controller.getScaleShift();
+                    }
+                    long now = System.nanoTime();
+                    for (int i = 0; i < duePyramidStreams.length; i++) {
+                        PyramidStream stream = pyramidStreams.get(i);
+                        duePyramidStreams[i] = stream.claim(now);
+                        if (duePyramidStreams[i]) {
+                            depth = Math.max(depth, stream.level);
+                        }
+                    }
+                    pyramid.build(slot.getData(), slot.getWidth(), slot.getHeight(), depth);
+                }
+
+                @Override
+                public void release() {
+                    imageEncoders.remove(compressedEncoder);
+                    imageEncoders.remove(rgbEncoder);
+                    compressedEncoder.release();
+                    rgbEncoder.release();
+                }
+
+                private void encode(ImageEncoder encoder, int level, int quality, ByteArrayOutputBuffer output)
+                        throws Exception {
+                    try {
+                        ImageUtil.encodeNv21(encoder, pyramid.getLevel(level),
+                                pyramid.getWidth(level), pyramid.getHeight(level), quality, output);
+                    } catch (ImageUtil.CodecFailedException ex) {
+                        StringWriter sw = new StringWriter();
+                        PrintWriter pw = new PrintWriter(sw);
+                        ex.printStackTrace(pw);
+                        pw.flush();
+                        Log.e("imageNode", sw.toString());
+                        throw ex;
+                    } catch (OutOfMemoryError e) {
+                        Log.e("imageNode","メモリがパンパンでPublishできないよ。悲しいね。");
+                        throw new ImageUtil.CodecFailedException("Out of memory while encoding.");
+                    }
+                }
+            };
+        }
 
-                    Log.d("ImageNode","Publish! "+receivedImageWidth +"x"+ receivedImageHeight);
-                    imagePublisher.publish(imageMessage);
+        private ImageEncoder register(ImageEncoder encoder) {
+            imageEncoders.add(encoder);
+            return encoder;
+        }
+    };
 
-                    imageMessage = null;
-                }else{
-                    Log.d("ImageNode", "多分Sizeがnull");
+    private final FramePipeline.Sink imageSink = new FramePipeline.Sink() {
+        @Override
+        public void publish(FrameSlot slot) {
+            // Stamps the capture time, so subscribers can compensate for the pipeline latency.
+            Time stamp = connectedNode.getCurrentTime()
+                    .subtract(Duration.fromNano(System.nanoTime() - slot.getTimestamp()));
+            for (int i = 0; i < pyramidStreams.size(); i++) {
+                ByteArrayOutputBuffer output = slot.getOutput(i + 1);
+                if (output != null) {
+                    Publisher<CompressedImage> publisher = pyramidStreams.get(i).publisher;
+                    CompressedImage imageMessage = publisher.newMessage();
+                    fillHeader(imageMessage.getHeader(), slot, stamp);
+                    imageMessage.setFormat(compressedFormat);
+                    imageMessage.setData(output.toChannelBuffer());
+                    publisher.publish(imageMessage);
                 }
-            }catch (Exception ex){
-                StringWriter sw = new StringWriter();
-                PrintWriter pw = new PrintWriter(sw);
-                ex.printStackTrace(pw);
-                pw.flush();
-                String str = sw.toString();
-                Log.e("imageNode",str);
-            }catch (OutOfMemoryError e) {
-                Log.e("imageNode","メモリがパンパンでPublishできないよ。悲しいね。");
-            }finally {
-                frame = null;
-                System.gc();
             }
 
+            if (activeOutputMode == OutputMode.COMPRESSED) {
+                publishCompressed(slot, stamp);
+            } else {
+                publishRaw(slot, stamp);
+            }
+
+            long now = System.nanoTime();
+            captureToEncodeLatency.record(slot.getEncodeStartNanos() - slot.getTimestamp());
+            encodeLatency.record(slot.getEncodeNanos());
+            encodeToPublishLatency.record(now - slot.getEncodeEndNanos());
+            captureToPublishLatency.record(now - slot.getTimestamp());
+        }
+
+        private void publishCompressed(FrameSlot slot, Time stamp) {
+            CompressedImage imageMessage = imagePublisher.newMessage();
+            fillHeader(imageMessage.getHeader(), slot, stamp);
+            imageMessage.setFormat(compressedFormat);
+            imageMessage.setData(slot.getOutput().toChannelBuffer());
+
+            imagePublisher.publish(imageMessage);
+
+            BandwidthController controller = bandwidthController;
+            if (controller != null) {
+                controller.onFramePublished(slot.getOutput().size(), slot.getEncodeNanos(), System.nanoTime());
+            }
+        }
+
+        private void publishRaw(FrameSlot slot, Time stamp) {
+            Image imageMessage = rawImagePublisher.newMessage();
+            fillHeader(imageMessage.getHeader(), slot, stamp);
+            imageMessage.setWidth(slot.getWidth());
+            imageMessage.setHeight(slot.getHeight());
+            imageMessage.setEncoding(activeOutputMode.encoding);
+            imageMessage.setIsBigendian((byte) 0);
+            imageMessage.setStep(slot.getWidth() * activeOutputMode.bytesPerPixel);
+            imageMessage.setData(slot.getOutput().toChannelBuffer());
+
+            rawImagePublisher.publish(imageMessage);
+        }
+
+        /**
+         * Uses the capture sequence number, which also counts frames dropped by the pipeline or
+         * suppressed by change detection, so gaps in seq show where frames were not published.
+         */
+        private void fillHeader(Header header, FrameSlot slot, Time stamp) {
+            header.setStamp(stamp);
+            header.setFrameId(cameraFrameId);
+            header.setSeq((int) slot.getSequence());
         }
     };
 
@@ -101,25 +369,223 @@ public class ImagePublisherNode extends AbstractNodeMain {
     @Override
     public void onStart(final ConnectedNode connectedNode) {
         this.connectedNode = connectedNode;
-        imagePublisher = connectedNode.newPublisher("image/compressed", CompressedImage._TYPE);
-        connectedNode.executeCancellableLoop(new CancellableLoop() {
+        activeOutputMode = outputMode;
+        if (activeOutputMode == OutputMode.COMPRESSED) {
+            imagePublisher = connectedNode.newPublisher("image/compressed", CompressedImage._TYPE);
+        } else {
+            rawImagePublisher = connectedNode.newPublisher("image", Image._TYPE);
+        }
 
+        if (activeOutputMode == OutputMode.COMPRESSED && targetBytesPerSecond > 0 && targetFramesPerSecond > 0) {
+            BandwidthController controller = new BandwidthController(targetBytesPerSecond, targetFramesPerSecond);
+            controller.setQualityRange(MIN_JPEG_QUALITY, JPEG_QUALITY);
+            controller.setEncoderThreads(encoderThreads);
+            bandwidthController = controller;
+        }
+
+        compressedFormat = ImageEncoders.getFormat(encoderType, encoderOptions);
+        changeDetector = changeThreshold > 0
+                ? new FrameChangeDetector(changeThreshold, keyframeIntervalMillis * 1000000L) : null;
 
+        // Buffers held by encoders or waiting for the publisher stage are not yet in rosjava's queue,
+        // and every topic has a queue of its own.
+        outputBufferPool = new OutputBufferPool(OutputBufferPool.DEFAULT_SIZE + frameSlots, INITIAL_OUTPUT_CAPACITY);
+        for (PyramidStream stream : pyramidStreams) {
+            stream.publisher = connectedNode.newPublisher("image/level" + stream.level + "/compressed",
+                    CompressedImage._TYPE);
+            stream.bufferPool = new OutputBufferPool(OutputBufferPool.DEFAULT_SIZE + frameSlots, INITIAL_PYRAMID_CAPACITY);
+            stream.nextDueNanos.set(System.nanoTime());
+        }
+        FramePipeline pipeline = new FramePipeline(frameSlots, encoderThreads, dropPolicy,
+                encoderFactory, imageSink);
+        pipeline.start();
+        this.pipeline = pipeline;
+
+        final String encoderName = activeOutputMode == OutputMode.COMPRESSED
+                ? encoderType.name() : activeOutputMode.name();
+        final Publisher<DiagnosticArray> diagnosticsPublisher =
+                connectedNode.newPublisher("diagnostics", DiagnosticArray._TYPE);
+        connectedNode.executeCancellableLoop(new CancellableLoop() {
             @Override
             protected void loop() throws InterruptedException {
-
-                Thread.sleep(1);
+                Thread.sleep(DIAGNOSTICS_PERIOD_MILLIS);
+                FramePipeline pipeline = ImagePublisherNode.this.pipeline;
+                if (pipeline == null) {
+                    return;
+                }
+                DiagnosticStatusBuilder status =
+                        new DiagnosticStatusBuilder(connectedNode.getTopicMessageFactory(), connectedNode.getName().toString())
+                                .setHardwareId(cameraFrameId)
+                                .add("captured_queue_depth", pipeline.getCapturedQueueDepth())
+                                .add("encoding_depth", pipeline.getEncodingDepth())
+                                .add("encoded_queue_depth", pipeline.getEncodedQueueDepth())
+                                .add("captured_frames", pipeline.getCapturedFrames())
+                                .add("dropped_frames", pipeline.getDroppedFrames())
+                                .add("failed_frames", pipeline.getFailedFrames())
+                                .add("published_frames", pipeline.getPublishedFrames());
+                BandwidthController controller = bandwidthController;
+                if (controller != null) {
+                    status.add("jpeg_quality", controller.getQuality())
+                            .add("scale_shift", controller.getScaleShift())
+                            .add("bytes_per_second", controller.getBytesPerSecond())
+                            .add("target_bytes_per_second", controller.getTargetBytesPerSecond())
+                            .add("frames_per_second", controller.getFramesPerSecond())
+                            .add("target_frames_per_second", controller.getTargetFramesPerSecond())
+                            .add("encode_ms", controller.getEncodeMillis());
+                }
+                long encodedFrames = 0;
+                long encodeNanos = 0;
+                long encodedBytes = 0;
+                for (ImageEncoder encoder : imageEncoders) {
+                    encodedFrames += encoder.getEncodedFrames();
+                    encodeNanos += encoder.getTotalEncodeNanos();
+                    encodedBytes += encoder.getTotalBytes();
+                }
+                status.add("encoder", encoderName);
+                if (encodedFrames > 0) {
+                    status.add("mean_encode_ms", encodeNanos / 1e6 / encodedFrames)
+                            .add("mean_encoded_bytes", encodedBytes / encodedFrames);
+                }
+                // Latencies cover the last diagnostics period.
+                captureToEncodeLatency.addTo(status, "capture_to_encode");
+                encodeLatency.addTo(status, "encode");
+                encodeToPublishLatency.addTo(status, "encode_to_publish");
+                captureToPublishLatency.addTo(status, "capture_to_publish");
+                captureToEncodeLatency.reset();
+                encodeLatency.reset();
+                encodeToPublishLatency.reset();
+                captureToPublishLatency.reset();
+                FrameChangeDetector detector = changeDetector;
+                if (detector != null) {
+                    status.add("unchanged_frames_suppressed", detector.getSuppressedFrames())
+                            .add("changed_frames_passed", detector.getPassedFrames())
+                            .add("frame_difference", detector.getLastDifference());
+                }
+                DiagnosticArray diagnostics = diagnosticsPublisher.newMessage();
+                diagnostics.getHeader().setStamp(connectedNode.getCurrentTime());
+                diagnostics.getStatus().add(status.build());
+                diagnosticsPublisher.publish(diagnostics);
             }
         });
     }
 
     @Override
     public void onShutdown(final Node node) {
-        this.connectedNode = connectedNode;
+        FramePipeline pipeline = this.pipeline;
+        this.pipeline = null;
+        if (pipeline != null) {
+            // Each encoder thread releases its encoders as it exits.
+            pipeline.stop();
+        }
+        FrameChangeDetector detector = changeDetector;
+        if (detector != null) {
+            detector.reset();
+        }
         Log.w("ImageNode","シャットダウン："+node.getName());
     }
 
     public OnFrameIdChangeListener getFrameIdListener() {
         return cameraFrameIdChangeListener;
     }
+
+    /**
+     * Sets the number of frame slots in the capture ring. Takes effect on the next start.
+     */
+    public void setFrameSlots(int frameSlots) {
+        this.frameSlots = frameSlots;
+    }
+
+    /**
+     * Sets the number of parallel encoder threads. Takes effect on the next start.
+     */
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+    }
+
+    /**
+     * Sets which frame is discarded when every slot is busy. Takes effect on the next start.
+     */
+    public void setDropPolicy(FramePipeline.DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * Selects between compressed and uncompressed output. Takes effect on the next start; the
+     * running pipeline keeps the mode it was started with.
+     */
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+    }
+
+    /**
+     * Selects the encoder of {@link OutputMode#COMPRESSED} and of the pyramid streams, e.g.
+     * {@link ImageEncoders.Type#JAVA_JPEG} to spread a frame over several cores or
+     * {@link ImageEncoders.Type#PNG} for lossless images. Uncompressed output is selected with
+     * {@link #setOutputMode}. Takes effect on the next start.
+     */
+    public void setImageEncoder(ImageEncoders.Type type, ImageEncoders.Options options) {
+        if (type == ImageEncoders.Type.RAW) {
+            throw new IllegalArgumentException("Select uncompressed output with setOutputMode.");
+        }
+        this.encoderType = type;
+        this.encoderOptions = options;
+    }
+
+    /**
+     * Additionally publishes every frame downscaled {@code level} times by two on
+     * image/level&lt;level&gt;/compressed, at most {@code maxRate} times per second. All levels are
+     * built from one pyramid per frame, so adding levels costs little more than their encoding.
+     * Must be called before the node is started.
+     */
+    public void addPyramidLevel(int level, double maxRate, int quality) {
+        if (level < 1) {
+            throw new IllegalArgumentException("Pyramid levels start at 1: " + level);
+        }
+        pyramidStreams.add(new PyramidStream(level, maxRate, quality));
+    }
+
+    /**
+     * Skips frames whose mean luma difference to the last published frame is at most
+     * {@code threshold} levels, while still publishing at least one frame every
+     * {@code keyframeIntervalMillis}. Pass a threshold of zero to publish every frame. Takes effect
+     * on the next start.
+     */
+    public void setChangeDetection(double threshold, long keyframeIntervalMillis) {
+        this.changeThreshold = threshold;
+        this.keyframeIntervalMillis = keyframeIntervalMillis;
+    }
+
+    /**
+     * Enables closed-loop control of JPEG quality and output resolution that holds the published
+     * byte rate and frame rate at the given targets. Pass zero to encode full frames at a fixed
+     * quality. Only applies to {@link OutputMode#COMPRESSED}. Takes effect on the next start.
+     */
+    public void setBandwidthTarget(double bytesPerSecond, double framesPerSecond) {
+        this.targetBytesPerSecond = bytesPerSecond;
+        this.targetFramesPerSecond = framesPerSecond;
+    }
+
+    /**
+     * @return the controller whose quality, scale and measured rates can be plotted, or
+     *         {@code null} if no bandwidth target is set
+     */
+    public BandwidthController getBandwidthController() {
+        return bandwidthController;
+    }
+
+    /**
+     * @return the running pipeline for reading its queue depths and frame counters, or
+     *         {@code null} while the node is not started
+     */
+    public FramePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return the detector with the suppressed and passed frame counters, or {@code null} if change
+     *         detection is disabled
+     */
+    public FrameChangeDetector getChangeDetector() {
+        return changeDetector;
+    }
 }
@@ -16,13 +16,10 @@ package org.ollide.rosandroid;
  */
 
 
-import android.graphics.*;
-import android.util.Size;
-import androidx.annotation.Nullable;
+import org.ros.android.image.ByteArrayOutputBuffer;
+import org.ros.android.image.ImageEncoder;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 /**
  * Utility class for image related operations.
@@ -34,18 +31,22 @@ final class ImageUtil {
     private ImageUtil() {
     }
 
-    public static byte[] nv21ToJpeg(byte[] nv21, int width, int height, @Nullable Rect cropRect)
+    /**
+     * Encodes {@code nv21} into {@code out}, which is reset first. Neither the encoder state nor
+     * the output buffer is allocated per call.
+     */
+    public static void encodeNv21(ImageEncoder encoder, byte[] nv21, int width, int height,
+                                  int quality, ByteArrayOutputBuffer out)
             throws CodecFailedException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
-        boolean success =
-                yuv.compressToJpeg(
-                        cropRect == null ? new Rect(0, 0, width, height) : cropRect, 100, out);
-        if (!success) {
-            throw new CodecFailedException("YuvImage failed to encode jpeg.",
+        try {
+            encoder.encode(nv21, width, height, quality, out);
+        } catch (IOException e) {
+            CodecFailedException exception = new CodecFailedException(
+                    "Failed to encode " + encoder.getFormat() + ": " + e.getMessage(),
                     CodecFailedException.FailureType.ENCODE_FAILED);
+            exception.initCause(e);
+            throw exception;
         }
-        return out.toByteArray();
     }
 
 
@@ -1,105 +1,164 @@
 package org.ollide.rosandroid;
 
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-
+import org.ros.android.FixedRateScheduler;
+import org.ros.android.math.Quaternions;
+import org.ros.android.sensor.ImuBatch;
+import org.ros.android.sensor.MadgwickFilter;
+import org.ros.android.sensor.SampleAligner;
+import org.ros.android.sensor.SampleBatcher;
+import org.ros.android.sensor.SampleRingBuffer;
+import org.ros.android.sensor.SensorClock;
+import org.ros.android.sensor.SensorSampleListener;
+import org.ros.android.sensor.SensorSnapshot;
 import org.ros.concurrent.CancellableLoop;
+import org.ros.message.Duration;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.util.concurrent.locks.LockSupport;
+
 import sensor_msgs.Imu;
+import std_msgs.Float64MultiArray;
 import std_msgs.Header;
 
 public class ImuPublisherNode extends AbstractNodeMain {
-    private static float maxFrequency = 100.f;
-    private float minElapse = 1000 / maxFrequency;
+    private static final float DEFAULT_MAX_FREQUENCY = 100.f;
+    // Caps the sensor_msgs/Imu rate. Runs that had to wait for samples rather than for the deadline,
+    // such as the first one after a pause, restart the schedule instead of counting as jitter.
+    private final FixedRateScheduler publishScheduler =
+            new FixedRateScheduler(DEFAULT_MAX_FREQUENCY, FixedRateScheduler.CatchUpPolicy.SKIP);
 
-    //TODO Ensure that data from accelerometer, gyroscope, and orientation sensor that is published within the same message does not vary in terms of the time they are message, otherwise drop.
-    private long previousPublishTime = System.currentTimeMillis();
-    private boolean isAccelerometerMessagePending;
-    private boolean isGyroscopeMessagePending;
-    private boolean isOrientationMessagePending;
+    private static final int SAMPLE_BUFFER_CAPACITY = 16;
+    private static final float DEFAULT_MAX_SKEW_MILLIS = 10.f;
 
-    private String topic_name;
-    private SensorEventListener accelerometerListener;
-    private SensorEventListener gyroscopeListener;
-    private SensorEventListener orientationListener;
+    private volatile Thread publisherThread;
+    // Only touched by the publisher loop once it started.
+    private volatile SampleBatcher batcher;
 
-    private double ax, ay, az;
-    private double aRoll, aPitch, aYaw;
-    private double roll, pitch, yaw;
+    private String topic_name;
+    private SensorSampleListener accelerometerListener;
+    private SensorSampleListener gyroscopeListener;
+
+    // Written lock-free by the sensor callbacks with the event timestamps, one thread per buffer,
+    // and aligned by the publisher loop.
+    private final SampleRingBuffer accelerometerSamples = new SampleRingBuffer(3, SAMPLE_BUFFER_CAPACITY, false);
+    private final SampleRingBuffer gyroscopeSamples = new SampleRingBuffer(3, SAMPLE_BUFFER_CAPACITY, false);
+    private final SampleRingBuffer orientationSamples = new SampleRingBuffer(4, SAMPLE_BUFFER_CAPACITY, false);
+    private final SampleAligner sampleAligner = new SampleAligner((long) (DEFAULT_MAX_SKEW_MILLIS * 1e6),
+            accelerometerSamples, gyroscopeSamples, orientationSamples);
+    private final SensorClock sensorClock = new SensorClock();
+
+    // The orientation is fused at the gyroscope rate, on the thread of the gyroscope callbacks.
+    private final SensorSnapshot rawAcceleration = new SensorSnapshot(3);
+    private final MadgwickFilter orientationFilter = new MadgwickFilter();
+    private final double[] orientationSample = new double[4];
+    private long previousGyroscopeTimestamp = Long.MIN_VALUE;
     private String imuFrameId;
-    private double prevRoll, prevPitch, prevYaw;
     private OnFrameIdChangeListener imuFrameIdChangeListener;
     private double[] gravityBuffer = new double[3];
 
     public ImuPublisherNode() {
         this.topic_name = "imu_data";
-        isAccelerometerMessagePending = false;
-        isGyroscopeMessagePending = false;
-        isOrientationMessagePending = false;
 
-        accelerometerListener = new SensorEventListener() {
+        accelerometerListener = new SensorSampleListener() {
             @Override
-            public void onSensorChanged(SensorEvent sensorEvent) {
+            public void onSensorSample(int sensorType, long timestamp, float[] values) {
+                rawAcceleration.set(values[0], values[1], values[2]);
+                rawAcceleration.publish(timestamp);
 
                 final double alpha = 0.8;
 
-                gravityBuffer[0] = alpha * gravityBuffer[0] + (1 - alpha) * sensorEvent.values[0];
-                gravityBuffer[1] = alpha * gravityBuffer[1] + (1 - alpha) * sensorEvent.values[1];
-                gravityBuffer[2] = alpha * gravityBuffer[2] + (1 - alpha) * sensorEvent.values[2];
+                gravityBuffer[0] = alpha * gravityBuffer[0] + (1 - alpha) * values[0];
+                gravityBuffer[1] = alpha * gravityBuffer[1] + (1 - alpha) * values[1];
+                gravityBuffer[2] = alpha * gravityBuffer[2] + (1 - alpha) * values[2];
 
-                ax = sensorEvent.values[0] - gravityBuffer[0];
-                ay = sensorEvent.values[1] - gravityBuffer[1];
-                az = sensorEvent.values[2] - gravityBuffer[2];
-                isAccelerometerMessagePending = true;
-            }
-
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int i) {
+                accelerometerSamples.add(timestamp,
+                        values[0] - gravityBuffer[0],
+                        values[1] - gravityBuffer[1],
+                        values[2] - gravityBuffer[2]);
+                wakePublisher();
             }
         };
 
-        gyroscopeListener = new SensorEventListener() {
+        gyroscopeListener = new SensorSampleListener() {
             @Override
-            public void onSensorChanged(SensorEvent sensorEvent) {
-                aRoll = Math.toRadians(sensorEvent.values[2]);
-                aPitch = Math.toRadians(-sensorEvent.values[0]);
-                aYaw = Math.toRadians(-sensorEvent.values[1]);
-                isGyroscopeMessagePending = true;
+            public void onSensorSample(int sensorType, long timestamp, float[] values) {
+                double gx = values[0];
+                double gy = values[1];
+                double gz = values[2];
+                gyroscopeSamples.add(timestamp, gx, gy, gz);
+
+                if (previousGyroscopeTimestamp != Long.MIN_VALUE && timestamp > previousGyroscopeTimestamp) {
+                    rawAcceleration.update();
+                    orientationFilter.update(gx, gy, gz, rawAcceleration.get(0), rawAcceleration.get(1),
+                            rawAcceleration.get(2), (timestamp - previousGyroscopeTimestamp) / 1e9);
+                }
+                previousGyroscopeTimestamp = timestamp;
+                if (orientationFilter.isInitialized()) {
+                    orientationFilter.getQuaternion(orientationSample);
+                    orientationSamples.add(timestamp, orientationSample);
+                }
+                wakePublisher();
             }
+        };
 
+        imuFrameIdChangeListener = new OnFrameIdChangeListener() {
             @Override
-            public void onAccuracyChanged(Sensor sensor, int i) {
+            public void onFrameIdChanged(String newFrameId) {
+                imuFrameId = newFrameId;
             }
         };
+    }
 
-        orientationListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent sensorEvent) {
+    // Called from the sensor callbacks; wakes the publisher once all three sensors reported. While
+    // the rate cap holds it back it wakes up on its own.
+    private void wakePublisher() {
+        if (sampleAligner.hasUpdate() && (batcher != null || publishScheduler.isDue(System.nanoTime()))) {
+            LockSupport.unpark(publisherThread);
+        }
+    }
 
-                roll = Math.toRadians(sensorEvent.values[2]);
-                pitch = Math.toRadians(-sensorEvent.values[0]);
-                yaw = Math.toRadians(-sensorEvent.values[1]);
+    /**
+     * Caps the publish rate. Zero or less publishes every complete set of samples.
+     */
+    public void setMaxFrequency(float maxFrequency) {
+        publishScheduler.setRate(Math.max(0, maxFrequency));
+    }
 
-                isOrientationMessagePending = true;
+    public FixedRateScheduler getPublishScheduler() {
+        return publishScheduler;
+    }
 
-            }
+    /**
+     * Sets how far from the common timestamp the closest sample of each sensor may be. Messages
+     * exceeding it are dropped.
+     */
+    public void setMaxSkewMillis(float maxSkewMillis) {
+        sampleAligner.setMaxSkewNanos((long) (maxSkewMillis * 1e6));
+    }
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int i) {
-            }
-        };
+    /**
+     * Additionally publishes every aligned sample in std_msgs/Float64MultiArray batches on the
+     * topic name plus "/batch", laid out as described by {@link ImuBatch}. A batch is sent once it holds
+     * {@code maxSamples} samples or its oldest sample waited {@code maxDelayMillis}. Must be called
+     * before the node is started.
+     */
+    public void setBatching(int maxSamples, float maxDelayMillis) {
+        batcher = new SampleBatcher(ImuBatch.SAMPLE_FIELD_COUNT, maxSamples, (long) (maxDelayMillis * 1e6));
+    }
 
-        imuFrameIdChangeListener = new OnFrameIdChangeListener() {
-            @Override
-            public void onFrameIdChanged(String newFrameId) {
-                imuFrameId = newFrameId;
-            }
-        };
+    /**
+     * @return {@code true} if {@link #setBatching} was called, so the sensors should be registered
+     *         at their full rate
+     */
+    public boolean isBatching() {
+        return batcher != null;
+    }
+
+    public long getDroppedMessageCount() {
+        return sampleAligner.getDroppedCount();
     }
 
     @Override
@@ -110,130 +169,102 @@ public class ImuPublisherNode extends AbstractNodeMain {
     @Override
     public void onStart(final ConnectedNode connectedNode) {
         final Publisher<Imu> imuPublisher = connectedNode.newPublisher(this.topic_name, Imu._TYPE);
+        final SampleBatcher batcher = this.batcher;
+        final Publisher<Float64MultiArray> batchPublisher = batcher == null ? null
+                : connectedNode.<Float64MultiArray>newPublisher(this.topic_name + "/batch", Float64MultiArray._TYPE);
 
         connectedNode.executeCancellableLoop(new CancellableLoop() {
             int sequenceNumber = 1;
             Header header = connectedNode.getTopicMessageFactory().newFromType(Header._TYPE);
             Imu imuMessage = imuPublisher.newMessage();
+            double[][] samples = {new double[3], new double[3], new double[4]};
+            // Whether the loop last waited for samples rather than for the publish deadline.
+            boolean waitedForSamples = true;
+
+            @Override
+            protected void setup() {
+                publisherThread = Thread.currentThread();
+            }
 
             @Override
             protected void loop() throws InterruptedException {
-                long currentTimeMillis = System.currentTimeMillis();
-                if (isAccelerometerMessagePending && isGyroscopeMessagePending && isOrientationMessagePending) {
-                    header.setStamp(connectedNode.getCurrentTime());
-                    header.setFrameId(imuFrameId);
-                    header.setSeq(sequenceNumber);
-                    imuMessage.setHeader(header);
-
-                    imuMessage.getLinearAcceleration().setX(ax);
-                    imuMessage.getLinearAcceleration().setY(ay);
-                    imuMessage.getLinearAcceleration().setZ(az);
-
-                    float dt = (currentTimeMillis - previousPublishTime) / 1000.f;
-                    double dRoll = (roll - prevRoll);
-                    if (dRoll > 180)
-                        dRoll = 360 - dRoll;
-                    double dPitch = (pitch - prevPitch);
-                    if (dPitch > 180)
-                        dPitch = 360 - dPitch;
-                    double dYaw = (yaw - prevYaw);
-                    if (dYaw > 180)
-                        dYaw = 360 - dYaw;
-
-                    imuMessage.getAngularVelocity().setX(dRoll / dt);
-                    imuMessage.getAngularVelocity().setY(dPitch / dt);
-                    imuMessage.getAngularVelocity().setZ(dYaw / dt);
-
-                    prevRoll = roll;
-                    prevPitch = pitch;
-                    prevYaw = yaw;
-
-                    quatStruct quat = fromAngles(yaw,roll,pitch);
-                    imuMessage.getOrientation().setW(quat.W);
-                    imuMessage.getOrientation().setX(quat.X);
-                    imuMessage.getOrientation().setY(quat.Y);
-                    imuMessage.getOrientation().setZ(quat.Z);
-
-                    imuPublisher.publish(imuMessage);
-
-                    //Wait until minimum time has elapsed
-                    long elapsed = currentTimeMillis - previousPublishTime;
-                    long remainingTime = (long) (minElapse - elapsed);
-                    if (remainingTime > 0)
-                        Thread.sleep(remainingTime);
-                    previousPublishTime = System.currentTimeMillis();
-
-                    isAccelerometerMessagePending = false;
-                    isGyroscopeMessagePending = false;
-                    isOrientationMessagePending = false;
-
-                    ++this.sequenceNumber;
+                if (!sampleAligner.hasUpdate()) {
+                    waitedForSamples = true;
+                    if (batcher != null && batcher.size() > 0) {
+                        LockSupport.parkNanos(this, batcher.getDueNanos() - System.nanoTime());
+                    } else {
+                        LockSupport.park(this);
+                    }
+                } else if (batcher == null && !publishScheduler.isDue(System.nanoTime())) {
+                    waitedForSamples = false;
+                    LockSupport.parkNanos(this, publishScheduler.getDeadlineNanos() - System.nanoTime());
                 } else {
-                    Thread.sleep(1);
+                    long timestamp = sampleAligner.align(samples);
+                    if (timestamp != Long.MIN_VALUE) {
+                        // Interpolated quaternions are only close to unit length.
+                        Quaternions.normalize(samples[2], samples[2]);
+                        if (batcher != null) {
+                            batcher.add(timestamp, samples);
+                        }
+                        long now = System.nanoTime();
+                        if (publishScheduler.isDue(now)) {
+                            if (waitedForSamples) {
+                                publishScheduler.onIdleRun(now);
+                            } else {
+                                publishScheduler.onRun(now);
+                            }
+                            waitedForSamples = false;
+                            publish(timestamp);
+                        }
+                    }
+                }
+                if (batcher != null && batcher.isDue(System.nanoTime())) {
+                    Float64MultiArray batch = batchPublisher.newMessage();
+                    ImuBatch.drain(batcher, sensorClock, connectedNode.getCurrentTime().totalNsecs(),
+                            connectedNode.getTopicMessageFactory(), batch);
+                    batchPublisher.publish(batch);
                 }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+
+            private void publish(long timestamp) {
+                header.setStamp(connectedNode.getCurrentTime()
+                        .subtract(Duration.fromNano(sensorClock.getAgeNanos(timestamp))));
+                header.setFrameId(imuFrameId);
+                header.setSeq(sequenceNumber);
+                imuMessage.setHeader(header);
+
+                imuMessage.getLinearAcceleration().setX(samples[0][0]);
+                imuMessage.getLinearAcceleration().setY(samples[0][1]);
+                imuMessage.getLinearAcceleration().setZ(samples[0][2]);
+
+                imuMessage.getAngularVelocity().setX(samples[1][0]);
+                imuMessage.getAngularVelocity().setY(samples[1][1]);
+                imuMessage.getAngularVelocity().setZ(samples[1][2]);
+
+                imuMessage.getOrientation().setW(samples[2][0]);
+                imuMessage.getOrientation().setX(samples[2][1]);
+                imuMessage.getOrientation().setY(samples[2][2]);
+                imuMessage.getOrientation().setZ(samples[2][3]);
+
+                imuPublisher.publish(imuMessage);
+
+                ++this.sequenceNumber;
             }
         });
     }
 
-    public SensorEventListener getAccelerometerListener() {
+    public SensorSampleListener getAccelerometerListener() {
         return accelerometerListener;
     }
 
-    public SensorEventListener getGyroscopeListener() {
+    public SensorSampleListener getGyroscopeListener() {
         return gyroscopeListener;
     }
 
-    public SensorEventListener getOrientationListener() {
-        return orientationListener;
-    }
-
     public OnFrameIdChangeListener getFrameIdListener() {
         return imuFrameIdChangeListener;
     }
-
-    private quatStruct fromAngles(double yaw, double roll, double pitch) {
-        double angle;
-        double sinRoll, sinPitch, sinYaw, cosRoll, cosPitch, cosYaw;
-        angle = pitch * 0.5f;
-        sinPitch = Math.sin(angle);
-        cosPitch = Math.cos(angle);
-        angle = roll * 0.5f;
-        sinRoll = Math.sin(angle);
-        cosRoll = Math.cos(angle);
-        angle = yaw * 0.5f;
-        sinYaw = Math.sin(angle);
-        cosYaw = Math.cos(angle);
-
-        // variables used to reduce multiplication calls.
-        double cosRollXcosPitch = cosRoll * cosPitch;
-        double sinRollXsinPitch = sinRoll * sinPitch;
-        double cosRollXsinPitch = cosRoll * sinPitch;
-        double sinRollXcosPitch = sinRoll * cosPitch;
-
-        quatStruct quat = new quatStruct();
-        quat.W = (cosRollXcosPitch * cosYaw - sinRollXsinPitch * sinYaw);
-        quat.X = (cosRollXcosPitch * sinYaw + sinRollXsinPitch * cosYaw);
-        quat.Y = (sinRollXcosPitch * cosYaw + cosRollXsinPitch * sinYaw);
-        quat.Z = (cosRollXsinPitch * cosYaw - sinRollXcosPitch * sinYaw);
-
-
-        double n = Math.sqrt(1f / norm(quat));
-        quat.W *= n;
-        quat.X *= n;
-        quat.Y *= n;
-        quat.Z *= n;
-
-        return quat;
-    }
-
-    public double norm(quatStruct quat) {
-        return quat.W * quat.W + quat.X * quat.X + quat.Y * quat.Y + quat.Z * quat.Z;
-    }
-
-    private class quatStruct{
-        public double W;
-        public double X;
-        public double Y;
-        public double Z;
-    }
 }
@@ -5,31 +5,38 @@ import android.location.LocationListener;
 import android.os.Bundle;
 import android.util.Log;
 
+import org.ros.android.FixedRateScheduler;
 import org.ros.concurrent.CancellableLoop;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.util.concurrent.locks.LockSupport;
+
 import sensor_msgs.NavSatFix;
 import std_msgs.Header;
 
 public class LocationPublisherNode extends AbstractNodeMain {
     private static final String TAG = LocationPublisherNode.class.getSimpleName();
 
-    private static float maxFrequency = 100.f;
-    private static float minElapse = 1000 / maxFrequency;
+    private static final float DEFAULT_MAX_FREQUENCY = 100.f;
+    private static final float DEFAULT_MIN_FREQUENCY = 20.f;
 
-    private static float minFrequency = 20.f;
-    private static float maxElapse = 1000 / minFrequency;
+    // New fixes are published at most at the maximum rate, and the last one is republished at the
+    // minimum rate when no new one arrives.
+    private final FixedRateScheduler publishScheduler =
+            new FixedRateScheduler(DEFAULT_MAX_FREQUENCY, FixedRateScheduler.CatchUpPolicy.SKIP);
+    private final FixedRateScheduler republishScheduler =
+            new FixedRateScheduler(DEFAULT_MIN_FREQUENCY, FixedRateScheduler.CatchUpPolicy.RESTART);
 
-    private long previousPublishTime = System.currentTimeMillis();
-    private boolean isMessagePending;
+    private volatile Location cachedLocation;
+    private volatile boolean isMessagePending;
+    private volatile Thread publisherThread;
 
     private String topic_name;
 
     private final LocationListener locationListener;
-    private Location cachedLocation;
     private String navSatFixFrameId;
     private OnFrameIdChangeListener locationFrameIdChangeListener;
 
@@ -42,6 +49,7 @@ public class LocationPublisherNode extends AbstractNodeMain {
                 if (location != null) {
                     cachedLocation = location;
                     isMessagePending = true;
+                    LockSupport.unpark(publisherThread);
                 }
             }
 
@@ -69,6 +77,31 @@ public class LocationPublisherNode extends AbstractNodeMain {
         };
     }
 
+    /**
+     * Caps the rate new fixes are published at. Zero publishes every fix.
+     */
+    public void setMaxFrequency(float maxFrequency) {
+        publishScheduler.setRate(Math.max(0, maxFrequency));
+    }
+
+    /**
+     * Sets the rate the last fix is republished at while no new one arrives. Zero never
+     * republishes.
+     */
+    public void setMinFrequency(float minFrequency) {
+        republishScheduler.setRate(Math.max(0, minFrequency));
+        republishScheduler.restart(System.nanoTime());
+        LockSupport.unpark(publisherThread);
+    }
+
+    public FixedRateScheduler getPublishScheduler() {
+        return publishScheduler;
+    }
+
+    public FixedRateScheduler getRepublishScheduler() {
+        return republishScheduler;
+    }
+
     @Override
     public void onStart(final ConnectedNode connectedNode) {
         final Publisher<NavSatFix> locationPublisher = connectedNode.newPublisher(this.topic_name, "sensor_msgs/NavSatFix");
@@ -78,32 +111,57 @@ public class LocationPublisherNode extends AbstractNodeMain {
             int sequenceNumber = 1;
             Header header = connectedNode.getTopicMessageFactory().newFromType(Header._TYPE);
 
+            @Override
+            protected void setup() {
+                publisherThread = Thread.currentThread();
+            }
+
+            // Whether the loop last waited for a fix or a republish rather than for the rate cap.
+            boolean idle = true;
+
             @Override
             protected void loop() throws InterruptedException {
-                if ((cachedLocation != null) &&
-                        (isMessagePending
-                                || (System.currentTimeMillis() - previousPublishTime) >= maxElapse // Or, is max elapse reached?
-                        )) {
+                long now = System.nanoTime();
+                boolean republishing = republishScheduler.getPeriodNanos() > 0;
+                if (cachedLocation == null || (!isMessagePending && !republishing)) {
+                    idle = true;
+                    LockSupport.park(this);
+                } else if (!isMessagePending && !republishScheduler.isDue(now)) {
+                    idle = true;
+                    LockSupport.parkNanos(this, republishScheduler.getDeadlineNanos() - now);
+                } else if (!publishScheduler.isDue(now)) {
+                    idle = false;
+                    LockSupport.parkNanos(this, publishScheduler.getDeadlineNanos() - now);
+                } else {
+                    // Cleared before reading the fix, so a newer one arriving meanwhile stays pending.
+                    boolean republish = !isMessagePending;
+                    isMessagePending = false;
+                    Location location = cachedLocation;
+                    if (republish) {
+                        republishScheduler.onRun(now);
+                    } else {
+                        republishScheduler.restart(now);
+                    }
+                    if (idle) {
+                        publishScheduler.onIdleRun(now);
+                    } else {
+                        publishScheduler.onRun(now);
+                    }
+                    idle = false;
+
                     header.setStamp(connectedNode.getCurrentTime());
                     header.setFrameId(navSatFixFrameId);
                     header.setSeq(sequenceNumber);
                     navSatFix.setHeader(header);
 
-                    navSatFix.setLatitude(cachedLocation.getLatitude());
-                    navSatFix.setLongitude(cachedLocation.getLongitude());
+                    navSatFix.setLatitude(location.getLatitude());
+                    navSatFix.setLongitude(location.getLongitude());
                     locationPublisher.publish(navSatFix);
 
-                    //Wait until minimum time has elapsed
-                    long elapsed = System.currentTimeMillis() - previousPublishTime;
-                    long remainingTime = (long) (minElapse - elapsed);
-                    if (remainingTime > 0)
-                        Thread.sleep(remainingTime);
-                    previousPublishTime = System.currentTimeMillis();
-
-                    isMessagePending = false;
                     ++this.sequenceNumber;
-                } else {
-                    Thread.sleep(1);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
                 }
             }
         });
@@ -41,6 +41,8 @@ import com.otaliastudios.cameraview.size.SizeSelectors;
 
 import org.ros.address.InetAddressFactory;
 import org.ros.android.RosActivity;
+import org.ros.android.sensor.AndroidSensorSource;
+import org.ros.android.sensor.SensorRegistry;
 import org.ros.node.NodeConfiguration;
 import org.ros.node.NodeMainExecutor;
 
@@ -53,6 +55,13 @@ public class MainActivity extends RosActivity implements View.OnClickListener {
 
     private static String notificationName = "RosAndroidExample";
 
+    // Sample the IMU at 200 Hz unless every sample is batched, and let the sensor hub batch up to
+    // 20 ms of samples.
+    private static final int IMU_SAMPLING_PERIOD_US = 5000;
+    private static final int IMU_MAX_REPORT_LATENCY_US = 20000;
+
+    private SensorRegistry sensorRegistry;
+
     public MainActivity() {
         super(notificationName, notificationName);
     }
@@ -145,30 +154,22 @@ public class MainActivity extends RosActivity implements View.OnClickListener {
             }
         });
 
-        SensorManager sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        try {
-            Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            sensorManager.registerListener(imuPublisherNode.getAccelerometerListener(), accelerometer, SensorManager.SENSOR_DELAY_FASTEST);
-        } catch (NullPointerException e) {
-            Log.e(TAG, e.toString());
-            return;
-        }
+        // Every IMU sample at the full sensor rate, 20 to a message or at least every 50 ms.
+        imuPublisherNode.setBatching(20, 50);
 
-        SensorManager sensorManager1 = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        try {
-            Sensor gyroscope = sensorManager1.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-            sensorManager1.registerListener(imuPublisherNode.getGyroscopeListener(), gyroscope, SensorManager.SENSOR_DELAY_FASTEST);
-        } catch (NullPointerException e) {
-            Log.e(TAG, e.toString());
+        SensorManager sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        sensorRegistry = new SensorRegistry(new AndroidSensorSource(sensorManager, "ImuSensors"));
+        // The batch topic is only complete at the full sensor rate.
+        int imuSamplingPeriodUs = imuPublisherNode.isBatching()
+                ? SensorManager.SENSOR_DELAY_FASTEST : IMU_SAMPLING_PERIOD_US;
+        if (sensorRegistry.register(Sensor.TYPE_ACCELEROMETER, imuSamplingPeriodUs, IMU_MAX_REPORT_LATENCY_US,
+                imuPublisherNode.getAccelerometerListener()) == null) {
+            Log.e(TAG, "No accelerometer");
             return;
         }
-
-        SensorManager sensorManager2 = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        try {
-            Sensor orientation = sensorManager2.getDefaultSensor(Sensor.TYPE_ORIENTATION);
-            sensorManager2.registerListener(imuPublisherNode.getOrientationListener(), orientation, SensorManager.SENSOR_DELAY_FASTEST);
-        } catch (NullPointerException e) {
-            Log.e(TAG, e.toString());
+        if (sensorRegistry.register(Sensor.TYPE_GYROSCOPE, imuSamplingPeriodUs, IMU_MAX_REPORT_LATENCY_US,
+                imuPublisherNode.getGyroscopeListener()) == null) {
+            Log.e(TAG, "No gyroscope");
             return;
         }
 
@@ -181,6 +182,13 @@ public class MainActivity extends RosActivity implements View.OnClickListener {
         NodeConfiguration nodeConfiguration = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
         nodeConfiguration.setMasterUri(getMasterUri());
 
+        // Hold the compressed stream around 1 MB/s at 30 fps by adapting JPEG quality and resolution.
+        imagePublisherNode.setBandwidthTarget(1000000, 30);
+        // Quarter resolution thumbnail stream for monitoring over slow links.
+        imagePublisherNode.addPyramidLevel(2, 5, 60);
+        // Stop sending the same scene while the robot is parked, but refresh it every 2 s.
+        imagePublisherNode.setChangeDetection(2, 2000);
+
         CameraView camera = findViewById(R.id.camera);
         camera.addFrameProcessor(imagePublisherNode.frameProcessor);
         camera.setPreviewStreamSize(SizeSelectors.and(SizeSelectors.maxHeight(640),SizeSelectors.maxWidth((640))));
@@ -195,6 +203,14 @@ public class MainActivity extends RosActivity implements View.OnClickListener {
         onClick(null);
     }
 
+    @Override
+    protected void onDestroy() {
+        if (sensorRegistry != null) {
+            sensorRegistry.shutdown();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onClick(View view) {
         Log.i(TAG, "Default IMU OnFrameIdChangedListener called");